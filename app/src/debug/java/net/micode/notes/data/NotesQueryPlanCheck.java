@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.ui.AlarmInitReceiver;
+import net.micode.notes.ui.FoldersListAdapter;
+import net.micode.notes.ui.NoteItemData;
+import net.micode.notes.ui.NotesListActivity;
+import net.micode.notes.widget.NoteWidgetProvider;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the note queries of the list, the
+ * folder menu, the search, the alarms and the widgets search an index instead
+ * of scanning the note table. The queries are built from the tables,
+ * selections and sort orders the provider and its callers use. Only in debug
+ * builds, started with
+ *
+ * <pre>
+ * adb shell am broadcast -a net.micode.notes.action.CHECK_QUERY_PLANS
+ * </pre>
+ *
+ * The broadcast result is 1 if every query uses an index, 0 otherwise, and
+ * the data holds the plans of the failed queries
+ */
+public class NotesQueryPlanCheck extends BroadcastReceiver {
+    private static final String TAG = NotesQueryPlanCheck.class.getSimpleName();
+
+    private static final String ROOT_FOLDER = String.valueOf(Notes.ID_ROOT_FOLDER);
+
+    private static final String TYPE_NOTE = String.valueOf(Notes.TYPE_NOTE);
+
+    private static final String TYPE_FOLDER = String.valueOf(Notes.TYPE_FOLDER);
+
+    private static final String TRASH_FOLDER = String.valueOf(Notes.ID_TRASH_FOLER);
+
+    private static final String PAGE_SIZE = String.valueOf(NotesListActivity.NOTES_LIST_PAGE_SIZE);
+
+    private static class Query {
+        final String name;
+
+        final String sql;
+
+        final String[] args;
+
+        // the rows are few, a sort of them in a temp b-tree is fine
+        final boolean sorted;
+
+        Query(String name, String sql, String[] args, boolean sorted) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+            this.sorted = sorted;
+        }
+    }
+
+    private static Query noteList(String name, String selection, String[] args, String limit) {
+        return new Query(name, SQLiteQueryBuilder.buildQueryString(false,
+                NotesProvider.getNoteListTable(Notes.ID_ROOT_FOLDER), NoteItemData.PROJECTION,
+                selection, null, null, NotesProvider.NOTE_LIST_SORT_ORDER, limit), args, false);
+    }
+
+    private static Query note(String name, String[] projection, String selection,
+            String[] args, String sortOrder, boolean sorted) {
+        return new Query(name, SQLiteQueryBuilder.buildQueryString(false, TABLE.NOTE,
+                projection, selection, null, null, sortOrder, null), args, sorted);
+    }
+
+    private static Query[] getQueries() {
+        String match = NotesProvider.getFullTextMatchString("note");
+        return new Query[] {
+                noteList("notes list", null, null, PAGE_SIZE),
+                noteList("notes list page", NotesListActivity.NEXT_PAGE_SELECTION, new String[] {
+                        TYPE_NOTE, "0", "0", "0"
+                }, PAGE_SIZE),
+                noteList("notes list type page", NotesListActivity.NEXT_TYPE_PAGE_SELECTION,
+                        new String[] {
+                            TYPE_FOLDER
+                        }, PAGE_SIZE),
+                noteList("notes list reload", NotesListActivity.RELOAD_SELECTION, new String[] {
+                        TYPE_NOTE, TYPE_NOTE, "0", "0", "0"
+                }, null),
+                note("folder note ids", new String[] {
+                    NoteColumns.ID
+                }, NotesListActivity.FOLDER_NOTE_IDS_SELECTION, new String[] {
+                        ROOT_FOLDER, TYPE_NOTE
+                }, null, false),
+                note("folder list", FoldersListAdapter.PROJECTION,
+                        NotesListActivity.getDestinationFolderSelection(false), new String[] {
+                                TYPE_FOLDER, TRASH_FOLDER, ROOT_FOLDER
+                        }, NotesListActivity.DESTINATION_FOLDER_SORT_ORDER, true),
+                note("folder list in folder", FoldersListAdapter.PROJECTION,
+                        NotesListActivity.getDestinationFolderSelection(true), new String[] {
+                                TYPE_FOLDER, TRASH_FOLDER, ROOT_FOLDER
+                        }, NotesListActivity.DESTINATION_FOLDER_SORT_ORDER, true),
+                new Query("search", NotesProvider.NOTES_FULL_TEXT_SEARCH_QUERY, new String[] {
+                        match, match, match
+                }, true),
+                note("alarms", null, AlarmInitReceiver.SELECTION, new String[] {
+                    "0"
+                }, null, false),
+                note("widget", NoteWidgetProvider.PROJECTION, NoteWidgetProvider.SELECTION,
+                        new String[] {
+                                "1", TRASH_FOLDER
+                        }, null, false)
+        };
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String failures = check(context);
+        if (failures.length() == 0) {
+            Log.i(TAG, "all queries use an index");
+            setResult(1, null, null);
+        } else {
+            Log.e(TAG, "queries not using an index:\n" + failures);
+            setResult(0, failures, null);
+        }
+    }
+
+    /**
+     * Returns the plans of the queries that do not use an index, empty if
+     * all of them do
+     */
+    public static String check(Context context) {
+        SQLiteDatabase db = NotesDatabaseHelper.getInstance(context).getReadableDatabase();
+        StringBuilder failures = new StringBuilder();
+        for (Query query : getQueries()) {
+            String plan = explain(db, query.sql, query.args);
+            // a search by index, without a full scan or a sort in a temp b-tree
+            if (!plan.contains("USING") || hasTableScan(plan)
+                    || (!query.sorted && plan.contains("TEMP B-TREE"))) {
+                failures.append(query.name).append(": ").append(plan).append('\n');
+            }
+        }
+        return failures.toString();
+    }
+
+    /**
+     * Whether a step of the plan scans a table. A scan of a subquery, which
+     * the list reads at most two rows of, or of the full-text index is fine
+     */
+    private static boolean hasTableScan(String plan) {
+        for (String step : plan.split("; ")) {
+            if (step.startsWith("SCAN") && !step.contains("SUBQUERY")
+                    && !step.contains("subquery") && !step.contains("VIRTUAL TABLE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String explain(SQLiteDatabase db, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        if (c != null) {
+            try {
+                int detail = c.getColumnIndex("detail");
+                while (c.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append("; ");
+                    }
+                    plan.append(c.getString(detail));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return plan.toString();
+    }
+}
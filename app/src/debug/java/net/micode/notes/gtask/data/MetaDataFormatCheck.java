@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Checks that the meta info of a note comes back the same from both of the
+ * forms {@link MetaData} reads, the plain json and the compact one, before
+ * the compact one is written. Only in debug builds, started with
+ *
+ * <pre>
+ * adb shell am broadcast -a net.micode.notes.action.CHECK_META_FORMAT
+ * </pre>
+ *
+ * The broadcast result is 1 if every check passes, 0 otherwise, and the data
+ * tells the failed ones
+ */
+public class MetaDataFormatCheck extends BroadcastReceiver {
+    private static final String TAG = MetaDataFormatCheck.class.getSimpleName();
+
+    private static final String GID = "04391427155436093213:0:1";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String failures;
+        try {
+            failures = check();
+        } catch (JSONException e) {
+            failures = e.toString();
+        }
+        if (failures.length() == 0) {
+            Log.i(TAG, "the meta info round trips");
+            setResult(1, null, null);
+        } else {
+            Log.e(TAG, "meta info checks failed:\n" + failures);
+            setResult(0, failures, null);
+        }
+    }
+
+    /**
+     * Returns the checks that failed, empty if all of them pass
+     */
+    public static String check() throws JSONException {
+        StringBuilder failures = new StringBuilder();
+        String json = getMetaInfo().toString();
+
+        // the plain json is read as it is
+        if (!json.equals(MetaData.decode(json))) {
+            failures.append("plain json is changed by decode\n");
+        }
+
+        // the meta info is long enough to be written compact
+        String compact = MetaData.encode(GID, json);
+        if (compact.equals(json)) {
+            failures.append("meta info is not made compact\n");
+        } else if (!json.equals(MetaData.decode(compact))) {
+            failures.append("compact meta info does not decode to the json\n");
+        }
+
+        // a short one is kept plain
+        String shortJson = new JSONObject().put(GTaskStringUtils.META_HEAD_GTASK_ID, GID)
+                .toString();
+        if (!shortJson.equals(MetaData.encode(GID, shortJson))) {
+            failures.append("short meta info is not kept plain\n");
+        }
+
+        // both forms are read from a task of the meta list
+        checkTask(failures, "plain", json, json);
+        checkTask(failures, "compact", compact, json);
+
+        // a broken compact form is no meta info, not a wrong one
+        MetaData meta = readTask(compact.substring(0, compact.length() / 2));
+        if (meta.getMetaInfo() != null) {
+            failures.append("truncated compact meta info is decoded\n");
+        }
+        return failures.toString();
+    }
+
+    private static void checkTask(StringBuilder failures, String form, String notes,
+            String json) throws JSONException {
+        MetaData meta = readTask(notes);
+        if (!GID.equals(meta.getRelatedGid())) {
+            failures.append(form).append(": related gid is ").append(meta.getRelatedGid())
+                    .append('\n');
+        }
+        JSONObject metaInfo = meta.getMetaInfo();
+        if (metaInfo == null || !json.equals(metaInfo.toString())) {
+            failures.append(form).append(": meta info is ").append(metaInfo).append('\n');
+        }
+    }
+
+    private static MetaData readTask(String notes) throws JSONException {
+        JSONObject js = new JSONObject();
+        js.put(GTaskStringUtils.GTASK_JSON_NAME, GTaskStringUtils.META_NOTE_NAME);
+        js.put(GTaskStringUtils.GTASK_JSON_NOTES, notes);
+        MetaData meta = new MetaData();
+        meta.setContentByRemoteJSON(js);
+        return meta;
+    }
+
+    private static JSONObject getMetaInfo() throws JSONException {
+        JSONObject note = new JSONObject();
+        note.put("bg_color_id", 2);
+        note.put("modified_date", 1350000000000L);
+        note.put("snippet", "a note with some text, and some more text 中文");
+
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < 3; i++) {
+            JSONObject row = new JSONObject();
+            row.put("mime_type", "vnd.android.cursor.item/text_note");
+            row.put("content", "line " + i + " of the note, the same words again and again");
+            data.put(row);
+        }
+
+        JSONObject metaInfo = new JSONObject();
+        metaInfo.put(GTaskStringUtils.META_HEAD_NOTE, note);
+        metaInfo.put(GTaskStringUtils.META_HEAD_DATA, data);
+        metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, GID);
+        return metaInfo;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.accounts.Account;
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+
+/**
+ * Syncs synthetic accounts of 100, 1k and 10k notes end to end against
+ * {@link MockGTaskTransport} and logs the stats of every sync. Each account
+ * is synced twice, a full sync into an empty database and an incremental one
+ * with nothing changed. The syncs take minutes, so it is a service running
+ * them on its worker thread. Only in debug builds, started with
+ *
+ * <pre>
+ * adb shell am startservice -a net.micode.notes.action.SYNC_BENCHMARK \
+ *     [--ei latency MS] [--ef failure_rate RATE]
+ * </pre>
+ *
+ * All the local notes are deleted, run it on a test device
+ */
+public class GTaskSyncBenchmark extends IntentService {
+    private static final String TAG = GTaskSyncBenchmark.class.getSimpleName();
+
+    public static final String EXTRA_LATENCY = "latency";
+
+    public static final String EXTRA_FAILURE_RATE = "failure_rate";
+
+    private static final int[] ACCOUNT_SIZES = new int[] {
+            100, 1000, 10000
+    };
+
+    private static final Account BENCHMARK_ACCOUNT = new Account("benchmark@localhost",
+            "com.google");
+
+    public GTaskSyncBenchmark() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        int latency = intent.getIntExtra(EXTRA_LATENCY, 0);
+        float failureRate = intent.getFloatExtra(EXTRA_FAILURE_RATE, 0);
+        for (int notes : ACCOUNT_SIZES) {
+            run(getApplicationContext(), notes, latency, failureRate);
+        }
+    }
+
+    /**
+     * Sync an account of the given number of notes into an empty database,
+     * then sync it again
+     */
+    public static void run(Context context, int notes, int latency, float failureRate) {
+        GTaskClient client = GTaskClient.getInstance();
+        GTaskTransport previous = client.getTransport();
+
+        // start from an empty database and no sync points
+        context.getContentResolver().delete(Notes.CONTENT_NOTE_URI,
+                NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM, null);
+        GTaskManager.clearSyncPoints(context);
+
+        MockGTaskTransport transport = new MockGTaskTransport();
+        transport.populate(notes);
+        transport.setLatency(latency);
+        transport.setFailureRate(failureRate);
+        client.setTransport(transport, BENCHMARK_ACCOUNT);
+        try {
+            GTaskManager manager = GTaskManager.getInstance();
+            manager.sync(context, null);
+            Log.i(TAG, notes + " notes, full sync:\n" + GTaskSyncStats.getLast().getReport());
+            manager.sync(context, null);
+            Log.i(TAG, notes + " notes, incremental sync:\n"
+                    + GTaskSyncStats.getLast().getReport());
+        } finally {
+            client.setTransport(previous);
+        }
+    }
+}
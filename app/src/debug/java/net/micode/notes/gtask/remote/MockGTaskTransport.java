@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+/**
+ * A task server kept in memory, it speaks the same json protocol as the
+ * Google Tasks server so that sync can be run and timed without network. The
+ * latency and failure rate of the requests can be configured. The order of
+ * the tasks in a list is not kept. It is set with
+ * {@link GTaskClient#setTransport(GTaskTransport, android.accounts.Account)}
+ * so that login does not need a google account, see {@link GTaskSyncBenchmark}
+ */
+public class MockGTaskTransport implements GTaskTransport {
+    private static final long CLIENT_VERSION = 1;
+
+    private final Random mRandom = new Random();
+
+    private int mLatency;
+
+    private float mFailureRate;
+
+    // gid of task list -> task list
+    private final LinkedHashMap<String, JSONObject> mLists = new LinkedHashMap<String, JSONObject>();
+
+    // gid of task list -> tasks of the list
+    private final HashMap<String, LinkedHashMap<String, JSONObject>> mTasks = new HashMap<String, LinkedHashMap<String, JSONObject>>();
+
+    // gid of task -> gid of its task list
+    private final HashMap<String, String> mTaskListGids = new HashMap<String, String>();
+
+    private long mNextId = 1;
+
+    private long mClock = System.currentTimeMillis();
+
+    // threads waiting for the latency of a request
+    private final HashSet<Thread> mWaitingThreads = new HashSet<Thread>();
+
+    /**
+     * Set the time in milliseconds every request takes
+     */
+    public synchronized void setLatency(int latency) {
+        mLatency = latency;
+    }
+
+    /**
+     * Set the share of the requests, from 0 to 1, failing with an
+     * IOException
+     */
+    public synchronized void setFailureRate(float failureRate) {
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * Fill the server with a synthetic account of the given number of notes,
+     * spread over a few folders
+     */
+    public synchronized void populate(int notes) {
+        String[] listGids = new String[] {
+                addTaskList(GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_DEFAULT),
+                addTaskList(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "Work"),
+                addTaskList(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "Home")
+        };
+        for (int i = 0; i < notes; i++) {
+            addTask(listGids[i % listGids.length], "note " + i, "content of note " + i);
+        }
+    }
+
+    public synchronized String addTaskList(String name) {
+        String gid = nextGid();
+        JSONObject list = new JSONObject();
+        try {
+            list.put(GTaskStringUtils.GTASK_JSON_ID, gid);
+            list.put(GTaskStringUtils.GTASK_JSON_NAME, name);
+            list.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, ++mClock);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mLists.put(gid, list);
+        mTasks.put(gid, new LinkedHashMap<String, JSONObject>());
+        return gid;
+    }
+
+    public synchronized String addTask(String listGid, String name, String notes) {
+        LinkedHashMap<String, JSONObject> tasks = mTasks.get(listGid);
+        if (tasks == null) {
+            throw new IllegalArgumentException("no task list " + listGid);
+        }
+        String gid = nextGid();
+        JSONObject task = new JSONObject();
+        try {
+            task.put(GTaskStringUtils.GTASK_JSON_ID, gid);
+            task.put(GTaskStringUtils.GTASK_JSON_NAME, name);
+            if (notes != null) {
+                task.put(GTaskStringUtils.GTASK_JSON_NOTES, notes);
+            }
+            task.put(GTaskStringUtils.GTASK_JSON_DELETED, false);
+            task.put(GTaskStringUtils.GTASK_JSON_COMPLETED, false);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        tasks.put(gid, task);
+        mTaskListGids.put(gid, listGid);
+        touch(listGid, task);
+        return gid;
+    }
+
+    public InputStream login(String domain, String authToken) throws IOException {
+        return getSetupPage();
+    }
+
+    public InputStream getSetupPage() throws IOException {
+        simulateRequest(0);
+        String page;
+        synchronized (this) {
+            try {
+                JSONArray lists = new JSONArray();
+                for (JSONObject list : mLists.values()) {
+                    if (!list.optBoolean(GTaskStringUtils.GTASK_JSON_DELETED)) {
+                        lists.put(list);
+                    }
+                }
+                JSONObject t = new JSONObject();
+                t.put(GTaskStringUtils.GTASK_JSON_LISTS, lists);
+                JSONObject setup = new JSONObject();
+                setup.put("v", CLIENT_VERSION);
+                setup.put("t", t);
+                page = "<html><script>_setup(" + setup.toString() + ")</script></html>";
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return toResponse(page);
+    }
+
+    public InputStream post(String request) throws IOException {
+        simulateRequest(request.length());
+        String response;
+        synchronized (this) {
+            try {
+                response = handleRequest(new JSONObject(request)).toString();
+            } catch (JSONException e) {
+                throw new IOException("bad request: " + e.getMessage());
+            }
+        }
+        return toResponse(response);
+    }
+
+    public void abort() {
+        synchronized (mWaitingThreads) {
+            for (Thread thread : mWaitingThreads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private void simulateRequest(int bytesOut) throws IOException {
+        int latency;
+        float failureRate;
+        synchronized (this) {
+            latency = mLatency;
+            failureRate = mFailureRate;
+        }
+        GTaskSyncStats.getLast().onRequest(bytesOut);
+
+        // the requests wait in parallel like they would on the network
+        if (latency > 0) {
+            synchronized (mWaitingThreads) {
+                mWaitingThreads.add(Thread.currentThread());
+            }
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new IOException("request aborted");
+            } finally {
+                synchronized (mWaitingThreads) {
+                    mWaitingThreads.remove(Thread.currentThread());
+                }
+            }
+        }
+        if (failureRate > 0 && mRandom.nextFloat() < failureRate) {
+            throw new IOException("simulated network failure");
+        }
+    }
+
+    private InputStream toResponse(String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        GTaskSyncStats.getLast().onResponseBytes(bytes.length);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private JSONObject handleRequest(JSONObject request) throws JSONException, IOException {
+        if (request.getLong(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION) != CLIENT_VERSION) {
+            throw new IOException("wrong client version");
+        }
+
+        JSONObject response = new JSONObject();
+        JSONArray results = new JSONArray();
+        JSONArray actions = request.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST);
+        for (int i = 0; i < actions.length(); i++) {
+            JSONObject action = actions.getJSONObject(i);
+            String type = action.getString(GTaskStringUtils.GTASK_JSON_ACTION_TYPE);
+            JSONObject result = new JSONObject();
+            result.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, action
+                    .get(GTaskStringUtils.GTASK_JSON_ACTION_ID));
+
+            if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE.equals(type)) {
+                result.put(GTaskStringUtils.GTASK_JSON_NEW_ID, create(action));
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE.equals(type)) {
+                update(action);
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE.equals(type)) {
+                move(action);
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL.equals(type)) {
+                response.put(GTaskStringUtils.GTASK_JSON_TASKS, getAll(action));
+            } else {
+                throw new IOException("unknown action type " + type);
+            }
+            results.put(result);
+        }
+        response.put(GTaskStringUtils.GTASK_JSON_RESULTS, results);
+        return response;
+    }
+
+    private String create(JSONObject action) throws JSONException, IOException {
+        JSONObject entity = action.getJSONObject(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        String name = entity.getString(GTaskStringUtils.GTASK_JSON_NAME);
+        if (GTaskStringUtils.GTASK_JSON_TYPE_GROUP.equals(entity
+                .getString(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE))) {
+            return addTaskList(name);
+        }
+
+        String listGid = action.getString(GTaskStringUtils.GTASK_JSON_LIST_ID);
+        if (!mTasks.containsKey(listGid)) {
+            throw new IOException("no task list " + listGid);
+        }
+        return addTask(listGid, name, entity.has(GTaskStringUtils.GTASK_JSON_NOTES) ? entity
+                .getString(GTaskStringUtils.GTASK_JSON_NOTES) : null);
+    }
+
+    private void update(JSONObject action) throws JSONException, IOException {
+        String gid = action.getString(GTaskStringUtils.GTASK_JSON_ID);
+        JSONObject entity = action.getJSONObject(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+
+        JSONObject target = mLists.get(gid);
+        String listGid = gid;
+        if (target == null) {
+            listGid = mTaskListGids.get(gid);
+            if (listGid == null) {
+                throw new IOException("no entity " + gid);
+            }
+            target = mTasks.get(listGid).get(gid);
+        }
+
+        Iterator<String> keys = entity.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            target.put(key, entity.get(key));
+        }
+        touch(listGid, target);
+    }
+
+    private void move(JSONObject action) throws JSONException, IOException {
+        String gid = action.getString(GTaskStringUtils.GTASK_JSON_ID);
+        String sourceGid = action.getString(GTaskStringUtils.GTASK_JSON_SOURCE_LIST);
+        String destGid = action.optString(GTaskStringUtils.GTASK_JSON_DEST_LIST, sourceGid);
+        LinkedHashMap<String, JSONObject> source = mTasks.get(sourceGid);
+        LinkedHashMap<String, JSONObject> dest = mTasks.get(destGid);
+        if (source == null || dest == null || !source.containsKey(gid)) {
+            throw new IOException("can not move " + gid);
+        }
+
+        JSONObject task = source.remove(gid);
+        dest.put(gid, task);
+        mTaskListGids.put(gid, destGid);
+        touch(sourceGid, null);
+        touch(destGid, task);
+    }
+
+    private JSONArray getAll(JSONObject action) throws JSONException, IOException {
+        String listGid = action.getString(GTaskStringUtils.GTASK_JSON_LIST_ID);
+        boolean getDeleted = action.optBoolean(GTaskStringUtils.GTASK_JSON_GET_DELETED);
+        LinkedHashMap<String, JSONObject> tasks = mTasks.get(listGid);
+        if (tasks == null) {
+            throw new IOException("no task list " + listGid);
+        }
+
+        JSONArray jsTasks = new JSONArray();
+        for (JSONObject task : tasks.values()) {
+            if (getDeleted || !task.optBoolean(GTaskStringUtils.GTASK_JSON_DELETED)) {
+                jsTasks.put(task);
+            }
+        }
+        return jsTasks;
+    }
+
+    /**
+     * Bump last_modified of the changed entity and of its task list, which
+     * tells the client to download the list again
+     */
+    private void touch(String listGid, JSONObject entity) {
+        long now = ++mClock;
+        try {
+            if (entity != null) {
+                entity.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, now);
+            }
+            mLists.get(listGid).put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, now);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String nextGid() {
+        return "mock-" + (mNextId++);
+    }
+}
@@ -36,7 +36,10 @@ public class Contact {
             + " FROM phone_lookup"
             + " WHERE min_match = '+')";
 
-    public static String getContact(Context context, String phoneNumber) {
+    /**
+     * It may be called from a background thread, the cache is shared
+     */
+    public static synchronized String getContact(Context context, String phoneNumber) {
         if(sContactCache == null) {
             sContactCache = new HashMap<String, String>();
         }
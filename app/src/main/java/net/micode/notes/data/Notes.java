@@ -46,6 +46,16 @@ public class Notes {
     public static final int TYPE_WIDGET_2X            = 0;
     public static final int TYPE_WIDGET_4X            = 1;
 
+    /**
+     * Provider methods for {@link android.content.ContentResolver#call}
+     * {@link Notes#METHOD_BEGIN_NOTIFY_BATCH} holds back change notifications until the
+     * matching {@link Notes#METHOD_END_NOTIFY_BATCH}, the held back changes are merged
+     * and notified once when the last open batch ends. Only the changes made by the
+     * caller of the batch, on the same thread or from the same process, are held back
+     */
+    public static final String METHOD_BEGIN_NOTIFY_BATCH = "begin_notify_batch";
+    public static final String METHOD_END_NOTIFY_BATCH   = "end_notify_batch";
+
     public static class DataConstants {
         public static final String NOTE = TextNote.CONTENT_ITEM_TYPE;
         public static final String CALL_NOTE = CallNote.CONTENT_ITEM_TYPE;
@@ -61,6 +71,20 @@ public class Notes {
      */
     public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+    /**
+     * Query parameter of {@link #CONTENT_NOTE_URI} limiting the number of rows
+     * returned, used to load the note list page by page
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Uri to query the rows of a folder as the note list shows them, append
+     * the id of the folder. The rows have the {@link NoteListColumns} and are
+     * sorted by type, modified date and id, descending
+     */
+    public static final Uri CONTENT_NOTE_LIST_URI = Uri.parse("content://" + AUTHORITY
+            + "/note_list");
+
     public interface NoteColumns {
         /**
          * The unique ID for a row
@@ -165,6 +189,38 @@ public class Notes {
          * <P> Type : INTEGER (long) </P>
          */
         public static final String VERSION = "version";
+
+        /**
+         * Hash of the synced content of the note and its data, kept by the
+         * provider
+         * <P> Type : INTEGER (long) </P>
+         */
+        public static final String CONTENT_HASH = "content_hash";
+    }
+
+    public interface NoteListColumns extends NoteColumns {
+        /**
+         * The phone number of a call note, null for other rows
+         * <P> Type: TEXT </P>
+         */
+        public static final String PHONE_NUMBER = "phone_number";
+
+        /**
+         * Where a note is in the group of notes following the folders, one of
+         * {@link #LIST_POSITION_NORMAL}, {@link #LIST_POSITION_FIRST},
+         * {@link #LIST_POSITION_LAST} and {@link #LIST_POSITION_SINGLE}.
+         * Folders are always {@link #LIST_POSITION_NORMAL}
+         * <P> Type: INTEGER </P>
+         */
+        public static final String LIST_POSITION = "list_position";
+
+        public static final int LIST_POSITION_NORMAL = 0;
+
+        public static final int LIST_POSITION_FIRST  = 1;
+
+        public static final int LIST_POSITION_LAST   = 2;
+
+        public static final int LIST_POSITION_SINGLE = 3;
     }
 
     public interface DataColumns {
@@ -239,6 +295,12 @@ public class Notes {
          * <P> Type: TEXT </P>
          */
         public static final String DATA5 = "data5";
+
+        /**
+         * Hash of the synced content of the data, kept by the provider
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CONTENT_HASH = "content_hash";
     }
 
     public static final class TextNote implements DataColumns {
@@ -250,6 +312,13 @@ public class Notes {
 
         public static final int MODE_CHECK_LIST = 1;
 
+        /**
+         * Tags leading the checked and unchecked items of a check list
+         */
+        public static final String TAG_CHECKED = String.valueOf('\u221A');
+
+        public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
+
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/text_note";
 
         public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/text_note";
@@ -18,28 +18,63 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.ContentHashUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 
 
 public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "note.db";
 
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 7;
 
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        public static final String SEARCH = "note_search";
+    }
+
+    /**
+     * Columns of the full-text {@link TABLE#SEARCH} table. The docid of each row
+     * is the {@link NoteColumns#ID} of the note or folder it indexes.
+     */
+    public interface SearchColumns {
+        public static final String DOCID = "docid";
+
+        public static final String CONTENT = "content";
     }
 
     private static final String TAG = "NotesDatabaseHelper";
 
+    /**
+     * Write-ahead logging lets list and widget queries go on while sync or
+     * import is writing, the size of the reader connection pool is decided by
+     * the platform once WAL is enabled
+     */
+    private static final boolean WAL_ENABLED = true;
+
+    /**
+     * Checkpoint automatically once the WAL file grows over this many pages,
+     * see {@link #checkpoint()} for the checkpoint after a large write
+     */
+    private static final int WAL_AUTO_CHECKPOINT_PAGES = 1000;
+
     private static NotesDatabaseHelper mInstance;
 
     private static final String CREATE_NOTE_TABLE_SQL =
@@ -60,7 +95,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," +
             NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
             NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," +
-            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," +
+            NoteColumns.CONTENT_HASH + " INTEGER NOT NULL DEFAULT 0" +
         ")";
 
     private static final String CREATE_DATA_TABLE_SQL =
@@ -75,13 +111,50 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             DataColumns.DATA2 + " INTEGER," +
             DataColumns.DATA3 + " TEXT NOT NULL DEFAULT ''," +
             DataColumns.DATA4 + " TEXT NOT NULL DEFAULT ''," +
-            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''" +
+            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''," +
+            DataColumns.CONTENT_HASH + " INTEGER NOT NULL DEFAULT 0" +
+        ")";
+
+    private static final String CREATE_SEARCH_TABLE_SQL =
+        "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.SEARCH + " USING fts4(" +
+            SearchColumns.CONTENT +
         ")";
 
     private static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
         "CREATE INDEX IF NOT EXISTS note_id_index ON " +
         TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    /**
+     * Notes list of a folder, sorted by type and modified date
+     */
+    private static final String CREATE_NOTE_PARENT_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_parent_id_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE +
+        ");";
+
+    /**
+     * Notes or folders out of a given folder, used by folder list and sync
+     */
+    private static final String CREATE_NOTE_TYPE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_type_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.TYPE + "," + NoteColumns.PARENT_ID +
+        ");";
+
+    private static final String CREATE_NOTE_ALERTED_DATE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_alert_date_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.TYPE + "," + NoteColumns.ALERTED_DATE +
+        ");";
+
+    private static final String CREATE_NOTE_WIDGET_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_widget_id_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.WIDGET_ID +
+        ");";
+
+    private static final String CREATE_NOTE_GTASK_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_gtask_id_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.GTASK_ID +
+        ");";
+
     /**
      * Increase folder's note count when move note to the folder
      */
@@ -150,7 +223,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_UPDATE_TRIGGER =
         "CREATE TRIGGER update_note_content_on_update " +
-        " AFTER UPDATE ON " + TABLE.DATA +
+        " AFTER UPDATE OF " + DataColumns.MIME_TYPE + "," + DataColumns.NOTE_ID + ","
+        + DataColumns.CONTENT + " ON " + TABLE.DATA +
         " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
@@ -171,6 +245,84 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
         " END";
 
+    /**
+     * Index note's content when insert data with type {@link DataConstants#NOTE}
+     */
+    private static final String DATA_INDEX_NOTE_CONTENT_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER index_note_content_on_insert " +
+        " AFTER INSERT ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH +
+        "   WHERE " + SearchColumns.DOCID + "=new." + DataColumns.NOTE_ID + ";" +
+        "  INSERT INTO " + TABLE.SEARCH + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")" +
+        "   VALUES (new." + DataColumns.NOTE_ID + ",new." + DataColumns.CONTENT + ");" +
+        " END";
+
+    /**
+     * Re-index note's content when data with {@link DataConstants#NOTE} type has changed
+     */
+    private static final String DATA_INDEX_NOTE_CONTENT_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER index_note_content_on_update " +
+        " AFTER UPDATE OF " + DataColumns.MIME_TYPE + "," + DataColumns.NOTE_ID + ","
+        + DataColumns.CONTENT + " ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH +
+        "   WHERE " + SearchColumns.DOCID + "=old." + DataColumns.NOTE_ID + ";" +
+        "  INSERT INTO " + TABLE.SEARCH + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")" +
+        "   VALUES (new." + DataColumns.NOTE_ID + ",new." + DataColumns.CONTENT + ");" +
+        " END";
+
+    /**
+     * Drop note's content from index when data with {@link DataConstants#NOTE} type has deleted
+     */
+    private static final String DATA_INDEX_NOTE_CONTENT_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER index_note_content_on_delete " +
+        " AFTER DELETE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH +
+        "   WHERE " + SearchColumns.DOCID + "=old." + DataColumns.NOTE_ID + ";" +
+        " END";
+
+    /**
+     * Index folder's name when insert new folder
+     */
+    private static final String FOLDER_INDEX_NAME_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER index_folder_name_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER +
+        " BEGIN" +
+        "  INSERT INTO " + TABLE.SEARCH + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")" +
+        "   VALUES (new." + NoteColumns.ID + ",new." + NoteColumns.SNIPPET + ");" +
+        " END";
+
+    /**
+     * Re-index folder's name when folder has been renamed
+     */
+    private static final String FOLDER_INDEX_NAME_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER index_folder_name_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.SNIPPET + " ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH +
+        "   WHERE " + SearchColumns.DOCID + "=old." + NoteColumns.ID + ";" +
+        "  INSERT INTO " + TABLE.SEARCH + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")" +
+        "   VALUES (new." + NoteColumns.ID + ",new." + NoteColumns.SNIPPET + ");" +
+        " END";
+
+    /**
+     * Drop index of note or folder which has been deleted
+     */
+    private static final String NOTE_DELETE_INDEX_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER delete_index_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH +
+        "   WHERE " + SearchColumns.DOCID + "=old." + NoteColumns.ID + ";" +
+        " END";
+
     /**
      * Delete datas belong to note which has been deleted
      */
@@ -208,15 +360,27 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
 
     public NotesDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(WAL_ENABLED);
+        }
     }
 
     public void createNoteTable(SQLiteDatabase db) {
         db.execSQL(CREATE_NOTE_TABLE_SQL);
         reCreateNoteTableTriggers(db);
+        createNoteTableIndexes(db);
         createSystemFolder(db);
         Log.d(TAG, "note table has been created");
     }
 
+    private void createNoteTableIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_PARENT_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_TYPE_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_ALERTED_DATE_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_WIDGET_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_GTASK_ID_INDEX_SQL);
+    }
+
     private void reCreateNoteTableTriggers(SQLiteDatabase db) {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_update");
         db.execSQL("DROP TRIGGER IF EXISTS decrease_folder_count_on_update");
@@ -225,6 +389,9 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
         db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
+        db.execSQL("DROP TRIGGER IF EXISTS index_folder_name_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS index_folder_name_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_index_on_delete");
 
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
@@ -233,6 +400,9 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER);
         db.execSQL(FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER);
         db.execSQL(FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER);
+        db.execSQL(FOLDER_INDEX_NAME_ON_INSERT_TRIGGER);
+        db.execSQL(FOLDER_INDEX_NAME_ON_UPDATE_TRIGGER);
+        db.execSQL(NOTE_DELETE_INDEX_ON_DELETE_TRIGGER);
     }
 
     private void createSystemFolder(SQLiteDatabase db) {
@@ -281,10 +451,137 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_update");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS index_note_content_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS index_note_content_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS index_note_content_on_delete");
 
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_UPDATE_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
+        db.execSQL(DATA_INDEX_NOTE_CONTENT_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_INDEX_NOTE_CONTENT_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_INDEX_NOTE_CONTENT_ON_DELETE_TRIGGER);
+    }
+
+    public void createSearchTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_SEARCH_TABLE_SQL);
+        Log.d(TAG, "search table has been created");
+    }
+
+    /**
+     * Fill the search table from existing notes' content and folders' names
+     */
+    private void rebuildSearchIndex(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE.SEARCH);
+        db.execSQL("INSERT INTO " + TABLE.SEARCH
+                + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")"
+                + " SELECT " + DataColumns.NOTE_ID + "," + DataColumns.CONTENT
+                + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + " GROUP BY " + DataColumns.NOTE_ID);
+        db.execSQL("INSERT INTO " + TABLE.SEARCH
+                + "(" + SearchColumns.DOCID + "," + SearchColumns.CONTENT + ")"
+                + " SELECT " + NoteColumns.ID + "," + NoteColumns.SNIPPET
+                + " FROM " + TABLE.NOTE
+                + " WHERE " + NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER);
+    }
+
+    /**
+     * Compute the content hash of the data matching the selection
+     *
+     * @return the ids of the notes the data belongs to
+     */
+    public HashSet<Long> updateDataContentHashes(SQLiteDatabase db, String selection,
+            String[] selectionArgs) {
+        HashSet<Long> noteIds = new HashSet<Long>();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.DATA + " SET "
+                + DataColumns.CONTENT_HASH + "=? WHERE " + DataColumns.ID + "=?");
+        Cursor c = null;
+        try {
+            c = db.query(TABLE.DATA, new String[] {
+                    DataColumns.ID, DataColumns.NOTE_ID, DataColumns.MIME_TYPE,
+                    DataColumns.CONTENT, DataColumns.DATA1, DataColumns.DATA3
+            }, selection, selectionArgs, null, null, null);
+            while (c.moveToNext()) {
+                statement.bindLong(1, ContentHashUtils.hashData(c.getString(2), c.getString(3),
+                        c.getLong(4), c.getString(5)));
+                statement.bindLong(2, c.getLong(0));
+                statement.execute();
+                noteIds.add(c.getLong(1));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+            statement.close();
+        }
+        return noteIds;
+    }
+
+    /**
+     * Compute the content hash of the notes from their own columns and the
+     * hashes of their data, all the notes are updated if noteIds is null
+     */
+    public void updateNoteContentHashes(SQLiteDatabase db, Collection<Long> noteIds) {
+        if (noteIds == null) {
+            updateNoteContentHashes(db, null, null);
+            return;
+        }
+
+        // keep the statements short
+        ArrayList<Long> ids = new ArrayList<Long>(noteIds);
+        for (int i = 0; i < ids.size(); i += 500) {
+            StringBuilder in = new StringBuilder(" IN (");
+            for (int j = i; j < Math.min(i + 500, ids.size()); j++) {
+                in.append(j > i ? "," : "").append(ids.get(j));
+            }
+            in.append(')');
+            updateNoteContentHashes(db, NoteColumns.ID + in, DataColumns.NOTE_ID + in);
+        }
+    }
+
+    private void updateNoteContentHashes(SQLiteDatabase db, String noteSelection,
+            String dataSelection) {
+        // the data hashes of a note are added up
+        HashMap<Long, Long> dataHashes = new HashMap<Long, Long>();
+        Cursor c = null;
+        try {
+            c = db.query(TABLE.DATA, new String[] {
+                    DataColumns.NOTE_ID, DataColumns.CONTENT_HASH
+            }, dataSelection, null, null, null, null);
+            while (c.moveToNext()) {
+                Long sum = dataHashes.get(c.getLong(0));
+                dataHashes.put(c.getLong(0), (sum == null ? 0 : sum) + c.getLong(1));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+                c = null;
+            }
+        }
+
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.CONTENT_HASH + "=? WHERE " + NoteColumns.ID + "=?");
+        try {
+            c = db.query(TABLE.NOTE, new String[] {
+                    NoteColumns.ID, NoteColumns.ALERTED_DATE, NoteColumns.BG_COLOR_ID,
+                    NoteColumns.PARENT_ID, NoteColumns.TYPE, NoteColumns.WIDGET_ID,
+                    NoteColumns.WIDGET_TYPE
+            }, noteSelection, null, null, null, null);
+            while (c.moveToNext()) {
+                Long sum = dataHashes.get(c.getLong(0));
+                statement.bindLong(1, ContentHashUtils.hashNote(c.getLong(1), c.getInt(2),
+                        c.getLong(3), c.getInt(4), c.getInt(5), c.getInt(6),
+                        sum == null ? 0 : sum));
+                statement.bindLong(2, c.getLong(0));
+                statement.execute();
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+            statement.close();
+        }
     }
 
     static synchronized NotesDatabaseHelper getInstance(Context context) {
@@ -296,10 +593,51 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createSearchTable(db);
         createNoteTable(db);
         createDataTable(db);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!WAL_ENABLED || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        execPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTO_CHECKPOINT_PAGES);
+    }
+
+    /**
+     * Move the content of the WAL file back to the database after a large write,
+     * it doesn't wait for the readers so it never blocks the list
+     */
+    public void checkpoint() {
+        if (!WAL_ENABLED) {
+            return;
+        }
+        execPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    /**
+     * Pragmas which return a row can't be run by execSQL
+     */
+    private void execPragma(SQLiteDatabase db, String pragma) {
+        Cursor c = null;
+        try {
+            c = db.rawQuery(pragma, null);
+            c.moveToFirst();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "run " + pragma + " failed: " + e.toString());
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         boolean reCreateTriggers = false;
@@ -322,6 +660,22 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             oldVersion++;
         }
 
+        if (oldVersion == 4) {
+            upgradeToV5(db);
+            reCreateTriggers = true;
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            upgradeToV6(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            upgradeToV7(db);
+            oldVersion++;
+        }
+
         if (reCreateTriggers) {
             reCreateNoteTableTriggers(db);
             reCreateDataTableTriggers(db);
@@ -336,6 +690,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private void upgradeToV2(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + TABLE.NOTE);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE.DATA);
+        createSearchTable(db);
         createNoteTable(db);
         createDataTable(db);
     }
@@ -359,4 +714,28 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
+
+    private void upgradeToV5(SQLiteDatabase db) {
+        // add a full-text index for note content and folder names
+        createSearchTable(db);
+        rebuildSearchIndex(db);
+    }
+
+    private void upgradeToV6(SQLiteDatabase db) {
+        // add indexes for the folder list, widget, alarm and sync queries
+        createNoteTableIndexes(db);
+        db.execSQL("ANALYZE");
+    }
+
+    private void upgradeToV7(SQLiteDatabase db) {
+        // add content hashes for sync to skip the unchanged notes
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.CONTENT_HASH
+                + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE.DATA + " ADD COLUMN " + DataColumns.CONTENT_HASH
+                + " INTEGER NOT NULL DEFAULT 0");
+        // writing the hashes should not touch the snippets and the index
+        reCreateDataTableTriggers(db);
+        updateDataContentHashes(db, null, null);
+        updateNoteContentHashes(db, null);
+    }
 }
@@ -19,27 +19,71 @@ package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteListColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.data.NotesDatabaseHelper.SearchColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
 
 public class NotesProvider extends ContentProvider {
     private static final UriMatcher mMatcher;
 
     private NotesDatabaseHelper mHelper;
 
+    /**
+     * Uris changed by the batch running on current thread, null if no batch is running
+     */
+    private final ThreadLocal<HashSet<Uri>> mBatchChangedUris = new ThreadLocal<HashSet<Uri>>();
+
+    /**
+     * Notify batches opened by {@link Notes#METHOD_BEGIN_NOTIFY_BATCH}, keyed by
+     * {@link #getNotifyBatchCaller()}. Only the changes made by the caller of an
+     * open batch are held back, the changes of other callers are notified as usual
+     */
+    private final HashMap<String, NotifyBatch> mNotifyBatches = new HashMap<String, NotifyBatch>();
+
+    /**
+     * A batch without any change nor end for this long is dropped and its held
+     * back changes are notified, its caller is taken as dead
+     */
+    private static final long NOTIFY_BATCH_TIMEOUT = 10 * 60 * 1000;
+
+    private static class NotifyBatch {
+        int count;
+
+        long activeTime;
+
+        final HashSet<Uri> heldChangedUris = new HashSet<Uri>();
+    }
+
     private static final String TAG = "NotesProvider";
 
     private static final int URI_NOTE            = 1;
@@ -50,12 +94,29 @@ public class NotesProvider extends ContentProvider {
     private static final int URI_SEARCH          = 5;
     private static final int URI_SEARCH_SUGGEST  = 6;
 
+    private static final int URI_NOTE_LIST       = 7;
+
+    /**
+     * The columns the content hash of a note or a data row is computed from
+     */
+    private static final String[] NOTE_HASH_COLUMNS = new String[] {
+        NoteColumns.ALERTED_DATE, NoteColumns.BG_COLOR_ID, NoteColumns.PARENT_ID,
+        NoteColumns.TYPE, NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE
+    };
+
+    private static final String[] DATA_HASH_COLUMNS = new String[] {
+        DataColumns.MIME_TYPE, DataColumns.CONTENT, DataColumns.DATA1, DataColumns.DATA3,
+        DataColumns.NOTE_ID
+    };
+
     static {
         mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mMatcher.addURI(Notes.AUTHORITY, "note", URI_NOTE);
         mMatcher.addURI(Notes.AUTHORITY, "note/#", URI_NOTE_ITEM);
         mMatcher.addURI(Notes.AUTHORITY, "data", URI_DATA);
         mMatcher.addURI(Notes.AUTHORITY, "data/#", URI_DATA_ITEM);
+        // the system folders have negative ids
+        mMatcher.addURI(Notes.AUTHORITY, "note_list/*", URI_NOTE_LIST);
         mMatcher.addURI(Notes.AUTHORITY, "search", URI_SEARCH);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, URI_SEARCH_SUGGEST);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", URI_SEARCH_SUGGEST);
@@ -79,6 +140,84 @@ public class NotesProvider extends ContentProvider {
         + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
         + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
 
+    private static final String NOTES_SEARCH_MATCH_IDS = "SELECT " + SearchColumns.DOCID
+        + " FROM " + TABLE.SEARCH
+        + " WHERE " + TABLE.SEARCH + " MATCH ?";
+
+    /**
+     * Notes whose content matches come first, then notes whose folder name matches,
+     * the newest first within each group.
+     */
+    static final String NOTES_FULL_TEXT_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
+        + " FROM " + TABLE.NOTE
+        + " WHERE (" + NoteColumns.ID + " IN (" + NOTES_SEARCH_MATCH_IDS + ")"
+        + " OR " + NoteColumns.PARENT_ID + " IN (" + NOTES_SEARCH_MATCH_IDS + "))"
+        + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+        + " ORDER BY " + NoteColumns.ID + " IN (" + NOTES_SEARCH_MATCH_IDS + ") DESC,"
+        + NoteColumns.MODIFIED_DATE + " DESC";
+
+    // the list shows a line of the snippet at most, so a long note does not
+    // need to be carried in the cursor window
+    private static final int NOTE_LIST_SNIPPET_LENGTH = 200;
+
+    static final String NOTE_LIST_SORT_ORDER = NoteColumns.TYPE + " DESC,"
+            + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+    /**
+     * The rows of a folder as the note list shows them. The snippet is cut and
+     * cleaned of the check list tags, a call note has its phone number and a
+     * note has its position among the notes, which follow the folders by the
+     * sort order. The position is found from the first and the last note and
+     * whether there is a single note, subqueries which are run once for the
+     * query. Window functions would do the same, but they are missing from the
+     * sqlite of older devices.
+     * <p>
+     * Every part is a search of the parent_id index, so a page costs the same
+     * however large the folder is. The rows are selected by parent_id only,
+     * an OR with another column would leave the folder to be sorted for each
+     * page, and nothing counts all the notes of the folder
+     */
+    static String getNoteListTable(long folderId) {
+        String selection = NoteColumns.PARENT_ID + "=" + folderId;
+        if (folderId == Notes.ID_ROOT_FOLDER) {
+            // the call record folder lives in the root, it is shown once it has notes
+            selection += " AND (" + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM + " OR ("
+                    + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " AND "
+                    + NoteColumns.NOTES_COUNT + ">0))";
+        }
+        String notes = "FROM " + TABLE.NOTE + " WHERE " + NoteColumns.PARENT_ID + "=" + folderId
+                + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+
+        return "(SELECT " + NoteColumns.ID + "," + NoteColumns.ALERTED_DATE + ","
+                + NoteColumns.BG_COLOR_ID + "," + NoteColumns.CREATED_DATE + ","
+                + NoteColumns.HAS_ATTACHMENT + "," + NoteColumns.MODIFIED_DATE + ","
+                + NoteColumns.NOTES_COUNT + "," + NoteColumns.PARENT_ID + ","
+                + "REPLACE(REPLACE(SUBSTR(" + NoteColumns.SNIPPET + ",1,"
+                + NOTE_LIST_SNIPPET_LENGTH + "),'" + TextNote.TAG_CHECKED + "',''),'"
+                + TextNote.TAG_UNCHECKED + "','') AS " + NoteColumns.SNIPPET + ","
+                + NoteColumns.TYPE + "," + NoteColumns.WIDGET_ID + "," + NoteColumns.WIDGET_TYPE + ","
+                + "CASE WHEN " + NoteColumns.PARENT_ID + "=" + Notes.ID_CALL_RECORD_FOLDER
+                + " THEN (SELECT " + CallNote.PHONE_NUMBER + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID
+                + " AND " + DataColumns.MIME_TYPE + "='" + CallNote.CONTENT_ITEM_TYPE
+                + "' LIMIT 1) END AS " + NoteListColumns.PHONE_NUMBER + ","
+                + "CASE WHEN " + NoteColumns.TYPE + "<>" + Notes.TYPE_NOTE
+                + " THEN " + NoteListColumns.LIST_POSITION_NORMAL
+                + " WHEN (SELECT COUNT(*) FROM (SELECT 1 " + notes + " LIMIT 2))=1"
+                + " THEN " + NoteListColumns.LIST_POSITION_SINGLE
+                + " WHEN " + NoteColumns.ID + "=(SELECT " + NoteColumns.ID + " " + notes
+                + " ORDER BY " + NoteColumns.MODIFIED_DATE + "," + NoteColumns.ID + " LIMIT 1)"
+                + " THEN " + NoteListColumns.LIST_POSITION_LAST
+                + " WHEN " + NoteColumns.ID + "=(SELECT " + NoteColumns.ID + " " + notes
+                + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID
+                + " DESC LIMIT 1)"
+                + " THEN " + NoteListColumns.LIST_POSITION_FIRST
+                + " ELSE " + NoteListColumns.LIST_POSITION_NORMAL + " END AS "
+                + NoteListColumns.LIST_POSITION
+                + " FROM " + TABLE.NOTE + " WHERE " + selection + ")";
+    }
+
     @Override
     public boolean onCreate() {
         mHelper = NotesDatabaseHelper.getInstance(getContext());
@@ -94,7 +233,7 @@ public class NotesProvider extends ContentProvider {
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+                        sortOrder, uri.getQueryParameter(Notes.QUERY_PARAMETER_LIMIT));
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
@@ -105,6 +244,15 @@ public class NotesProvider extends ContentProvider {
                 c = db.query(TABLE.DATA, projection, selection, selectionArgs, null, null,
                         sortOrder);
                 break;
+            case URI_NOTE_LIST:
+                id = uri.getPathSegments().get(1);
+                c = db.query(getNoteListTable(Long.parseLong(id)), projection, selection,
+                        selectionArgs, null, null,
+                        (sortOrder != null) ? sortOrder : NOTE_LIST_SORT_ORDER,
+                        uri.getQueryParameter(Notes.QUERY_PARAMETER_LIMIT));
+                // the rows change with the notes
+                uri = Notes.CONTENT_NOTE_URI;
+                break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
                 c = db.query(TABLE.DATA, projection, DataColumns.ID + "=" + id
@@ -131,11 +279,21 @@ public class NotesProvider extends ContentProvider {
                 }
 
                 try {
-                    searchString = String.format("%%%s%%", searchString);
-                    c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-                            new String[] { searchString });
+                    String matchString = getFullTextMatchString(searchString);
+                    if (matchString != null) {
+                        c = db.rawQuery(NOTES_FULL_TEXT_SEARCH_QUERY,
+                                new String[] { matchString, matchString, matchString });
+                    } else {
+                        // the full-text table can't find the input, scan the
+                        // snippets for it
+                        searchString = String.format("%%%s%%", searchString);
+                        c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
+                                new String[] { searchString });
+                    }
                 } catch (IllegalStateException ex) {
                     Log.e(TAG, "got exception: " + ex.toString());
+                } catch (SQLiteException ex) {
+                    Log.e(TAG, "got exception: " + ex.toString());
                 }
                 break;
             default:
@@ -154,6 +312,9 @@ public class NotesProvider extends ContentProvider {
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 insertedId = noteId = db.insert(TABLE.NOTE, null, values);
+                if (noteId > 0) {
+                    mHelper.updateNoteContentHashes(db, Collections.singleton(noteId));
+                }
                 break;
             case URI_DATA:
                 if (values.containsKey(DataColumns.NOTE_ID)) {
@@ -162,20 +323,22 @@ public class NotesProvider extends ContentProvider {
                     Log.d(TAG, "Wrong data format without note id:" + values.toString());
                 }
                 insertedId = dataId = db.insert(TABLE.DATA, null, values);
+                if (dataId > 0) {
+                    mHelper.updateNoteContentHashes(db, mHelper.updateDataContentHashes(db,
+                            DataColumns.ID + "=" + dataId, null));
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         // Notify the note uri
         if (noteId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
         }
 
         // Notify the data uri
         if (dataId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
         }
 
         return ContentUris.withAppendedId(uri, insertedId);
@@ -187,6 +350,7 @@ public class NotesProvider extends ContentProvider {
         String id = null;
         SQLiteDatabase db = mHelper.getWritableDatabase();
         boolean deleteData = false;
+        HashSet<Long> noteIds = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 selection = "(" + selection + ") AND " + NoteColumns.ID + ">0 ";
@@ -206,13 +370,15 @@ public class NotesProvider extends ContentProvider {
                         NoteColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
                 break;
             case URI_DATA:
+                noteIds = queryIds(db, TABLE.DATA, DataColumns.NOTE_ID, selection, selectionArgs);
                 count = db.delete(TABLE.DATA, selection, selectionArgs);
                 deleteData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.delete(TABLE.DATA,
-                        DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
+                selection = DataColumns.ID + "=" + id + parseSelection(selection);
+                noteIds = queryIds(db, TABLE.DATA, DataColumns.NOTE_ID, selection, selectionArgs);
+                count = db.delete(TABLE.DATA, selection, selectionArgs);
                 deleteData = true;
                 break;
             default:
@@ -220,9 +386,10 @@ public class NotesProvider extends ContentProvider {
         }
         if (count > 0) {
             if (deleteData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                mHelper.updateNoteContentHashes(db, noteIds);
+                notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return count;
     }
@@ -233,40 +400,340 @@ public class NotesProvider extends ContentProvider {
         String id = null;
         SQLiteDatabase db = mHelper.getWritableDatabase();
         boolean updateData = false;
+        // the rows are found before the update, which may change the columns
+        // the selection is on
+        HashSet<Long> hashIds = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
                 increaseNoteVersion(-1, selection, selectionArgs);
+                if (containsAny(values, NOTE_HASH_COLUMNS)) {
+                    hashIds = queryIds(db, TABLE.NOTE, NoteColumns.ID, selection, selectionArgs);
+                }
                 count = db.update(TABLE.NOTE, values, selection, selectionArgs);
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
                 increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
+                selection = NoteColumns.ID + "=" + id + parseSelection(selection);
+                if (containsAny(values, NOTE_HASH_COLUMNS)) {
+                    hashIds = queryIds(db, TABLE.NOTE, NoteColumns.ID, selection, selectionArgs);
+                }
+                count = db.update(TABLE.NOTE, values, selection, selectionArgs);
                 break;
             case URI_DATA:
+                if (containsAny(values, DATA_HASH_COLUMNS)) {
+                    hashIds = queryIds(db, TABLE.DATA, DataColumns.ID, selection, selectionArgs);
+                }
                 count = db.update(TABLE.DATA, values, selection, selectionArgs);
                 updateData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
+                selection = DataColumns.ID + "=" + id + parseSelection(selection);
+                if (containsAny(values, DATA_HASH_COLUMNS)) {
+                    hashIds = queryIds(db, TABLE.DATA, DataColumns.ID, selection, selectionArgs);
+                }
+                count = db.update(TABLE.DATA, values, selection, selectionArgs);
                 updateData = true;
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
+        if (count > 0 && hashIds != null && !hashIds.isEmpty()) {
+            updateContentHashes(db, hashIds, updateData);
+        }
+
         if (count > 0) {
             if (updateData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return count;
     }
 
+    private boolean containsAny(ContentValues values, String[] columns) {
+        for (String column : columns) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HashSet<Long> queryIds(SQLiteDatabase db, String table, String column,
+            String selection, String[] selectionArgs) {
+        HashSet<Long> ids = new HashSet<Long>();
+        Cursor c = db.query(table, new String[] {
+            column
+        }, selection, selectionArgs, null, null, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+            c.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Refresh the content hashes of the updated notes, or of the updated data
+     * and the notes they belong to before and after the update
+     */
+    private void updateContentHashes(SQLiteDatabase db, HashSet<Long> ids, boolean data) {
+        if (!data) {
+            mHelper.updateNoteContentHashes(db, ids);
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder(DataColumns.ID + " IN (");
+        boolean first = true;
+        for (Long id : ids) {
+            selection.append(first ? "" : ",").append(id);
+            first = false;
+        }
+        selection.append(')');
+        HashSet<Long> noteIds = queryIds(db, TABLE.DATA, DataColumns.NOTE_ID,
+                selection.toString(), null);
+        noteIds.addAll(mHelper.updateDataContentHashes(db, selection.toString(), null));
+        mHelper.updateNoteContentHashes(db, noteIds);
+    }
+
+    /**
+     * Build a prefix query for the full-text table, each word of the input
+     * matches any indexed word starting with it. The words are split at any
+     * character other than a letter or digit and quoted, so no part of the
+     * input is taken as query syntax (NEAR, AND, OR, NOT, quotes, operators).
+     * Return null if the table can't find the input: no letter or digit is
+     * left, or a word is of a script written without spaces (e.g. CJK), which
+     * the simple tokenizer keeps as one long token so a word inside it is
+     * never matched.
+     */
+    static String getFullTextMatchString(String searchString) {
+        StringBuilder match = new StringBuilder();
+        int length = searchString.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && Character.isLetterOrDigit(searchString.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+                continue;
+            }
+            if (start < 0) {
+                continue;
+            }
+            String word = searchString.substring(start, i);
+            start = -1;
+            if (hasUnsegmentedChar(word)) {
+                return null;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word).append("*\"");
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    private static boolean hasUnsegmentedChar(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            Character.UnicodeBlock block = Character.UnicodeBlock.of(word.charAt(i));
+            if (block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                    || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                    || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+                    || block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+                    || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS
+                    || block == Character.UnicodeBlock.HIRAGANA
+                    || block == Character.UnicodeBlock.KATAKANA
+                    || block == Character.UnicodeBlock.HANGUL_SYLLABLES
+                    || block == Character.UnicodeBlock.THAI) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean success = false;
+        beginBatch();
+        db.beginTransactionNonExclusive();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch(success);
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean success = false;
+        int count = 0;
+        beginBatch();
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues value : values) {
+                insert(uri, value);
+                count++;
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            endBatch(success);
+        }
+        return count;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_BEGIN_NOTIFY_BATCH.equals(method)) {
+            String caller = getNotifyBatchCaller();
+            synchronized (mNotifyBatches) {
+                NotifyBatch batch = mNotifyBatches.get(caller);
+                if (batch == null) {
+                    batch = new NotifyBatch();
+                    mNotifyBatches.put(caller, batch);
+                }
+                batch.count++;
+                batch.activeTime = SystemClock.elapsedRealtime();
+            }
+            return null;
+        } else if (Notes.METHOD_END_NOTIFY_BATCH.equals(method)) {
+            String caller = getNotifyBatchCaller();
+            HashSet<Uri> uris;
+            synchronized (mNotifyBatches) {
+                NotifyBatch batch = mNotifyBatches.get(caller);
+                if (batch == null) {
+                    Log.w(TAG, "end notify batch without begin");
+                    return null;
+                }
+                if (--batch.count > 0) {
+                    batch.activeTime = SystemClock.elapsedRealtime();
+                    return null;
+                }
+                mNotifyBatches.remove(caller);
+                uris = batch.heldChangedUris;
+            }
+            // the held back batch is usually a sync or an import
+            mHelper.checkpoint();
+            for (Uri uri : uris) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private void beginBatch() {
+        if (mBatchChangedUris.get() == null) {
+            mBatchChangedUris.set(new HashSet<Uri>());
+        }
+    }
+
+    /**
+     * Notify the uris changed by the batch once, nothing is notified if the
+     * batch has been rolled back
+     */
+    private void endBatch(boolean success) {
+        HashSet<Uri> uris = mBatchChangedUris.get();
+        mBatchChangedUris.set(null);
+        if (success && uris != null) {
+            for (Uri uri : uris) {
+                dispatchChange(uri);
+            }
+        }
+    }
+
+    /**
+     * Inside a batch the change of a single row is merged into the change of its
+     * table, observers of the table uri are also notified for the rows under it
+     */
+    private void notifyChange(Uri uri) {
+        HashSet<Uri> uris = mBatchChangedUris.get();
+        if (uris == null) {
+            dispatchChange(uri);
+        } else {
+            uris.add(getTableUri(uri));
+        }
+    }
+
+    private void dispatchChange(Uri uri) {
+        HashSet<Uri> expiredUris;
+        synchronized (mNotifyBatches) {
+            NotifyBatch batch = mNotifyBatches.get(getNotifyBatchCaller());
+            if (batch != null) {
+                batch.heldChangedUris.add(getTableUri(uri));
+                batch.activeTime = SystemClock.elapsedRealtime();
+                return;
+            }
+            expiredUris = removeExpiredNotifyBatches();
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+        if (expiredUris != null) {
+            for (Uri expiredUri : expiredUris) {
+                getContext().getContentResolver().notifyChange(expiredUri, null);
+            }
+        }
+    }
+
+    /**
+     * Drop the batches that timed out, returns the changes they held back or
+     * null if there is none. Called with {@link #mNotifyBatches} locked
+     */
+    private HashSet<Uri> removeExpiredNotifyBatches() {
+        HashSet<Uri> uris = null;
+        long now = SystemClock.elapsedRealtime();
+        Iterator<NotifyBatch> iter = mNotifyBatches.values().iterator();
+        while (iter.hasNext()) {
+            NotifyBatch batch = iter.next();
+            if (now - batch.activeTime > NOTIFY_BATCH_TIMEOUT) {
+                Log.w(TAG, "notify batch timed out");
+                iter.remove();
+                if (uris == null) {
+                    uris = new HashSet<Uri>();
+                }
+                uris.addAll(batch.heldChangedUris);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Calls from another process come on any of the binder threads, so their
+     * batch is kept per process. Calls in this process are made on the thread
+     * of the caller, their batch is kept per thread
+     */
+    private static String getNotifyBatchCaller() {
+        int pid = Binder.getCallingPid();
+        if (pid != Process.myPid()) {
+            return "pid:" + pid;
+        }
+        return "thread:" + Thread.currentThread().getId();
+    }
+
+    private Uri getTableUri(Uri uri) {
+        switch (mMatcher.match(uri)) {
+            case URI_NOTE:
+            case URI_NOTE_ITEM:
+                return Notes.CONTENT_NOTE_URI;
+            case URI_DATA:
+            case URI_DATA_ITEM:
+                return Notes.CONTENT_DATA_URI;
+            default:
+                return uri;
+        }
+    }
+
     private String parseSelection(String selection) {
         return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
     }
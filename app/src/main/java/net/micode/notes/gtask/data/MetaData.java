@@ -17,6 +17,7 @@
 package net.micode.notes.gtask.data;
 
 import android.database.Cursor;
+import android.util.Base64;
 import android.util.Log;
 
 import net.micode.notes.tool.GTaskStringUtils;
@@ -24,26 +25,65 @@ import net.micode.notes.tool.GTaskStringUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * The meta info of a note is kept as the notes of a task in the meta list,
+ * as the plain json. The compact form "~2:gid:base64 of the deflated json" is
+ * read too, for its related gid without decoding the meta info, which is only
+ * decoded once the task it belongs to needs it. The compact form is not
+ * written until {@link #WRITE_COMPACT} is set, older versions syncing the same
+ * account take it for a broken meta and would add a duplicate one without the
+ * attributes of the note
+ */
 public class MetaData extends Task {
     private final static String TAG = MetaData.class.getSimpleName();
 
+    private final static String COMPACT_PREFIX = "~2:";
+
+    // set once the versions which can't read the compact form are gone
+    final static boolean WRITE_COMPACT = false;
+
     private String mRelatedGid = null;
 
+    private JSONObject mMetaInfo = null;
+
     public void setMeta(String gid, JSONObject metaInfo) {
         try {
             metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid);
         } catch (JSONException e) {
             Log.e(TAG, "failed to put related gid");
         }
-        setNotes(metaInfo.toString());
+        String json = metaInfo.toString();
+        setNotes(WRITE_COMPACT ? encode(gid, json) : json);
         setName(GTaskStringUtils.META_NOTE_NAME);
+        mRelatedGid = gid;
+        mMetaInfo = null;
     }
 
     public String getRelatedGid() {
         return mRelatedGid;
     }
 
+    /**
+     * Decode the meta info, or return null if it is broken
+     */
+    public JSONObject getMetaInfo() {
+        if (mMetaInfo == null && getNotes() != null) {
+            try {
+                mMetaInfo = new JSONObject(decode(getNotes().trim()));
+            } catch (JSONException e) {
+                Log.w(TAG, e.toString());
+                mMetaInfo = null;
+            }
+        }
+        return mMetaInfo;
+    }
+
     @Override
     public boolean isWorthSaving() {
         return getNotes() != null;
@@ -52,10 +92,21 @@ public class MetaData extends Task {
     @Override
     public void setContentByRemoteJSON(JSONObject js) {
         super.setContentByRemoteJSON(js);
+        mMetaInfo = null;
         if (getNotes() != null) {
+            String notes = getNotes().trim();
+            if (notes.startsWith(COMPACT_PREFIX)) {
+                int end = notes.lastIndexOf(':');
+                mRelatedGid = end > COMPACT_PREFIX.length() ? notes.substring(
+                        COMPACT_PREFIX.length(), end) : null;
+                if (mRelatedGid == null) {
+                    Log.w(TAG, "failed to get related gid");
+                }
+                return;
+            }
             try {
-                JSONObject metaInfo = new JSONObject(getNotes().trim());
-                mRelatedGid = metaInfo.getString(GTaskStringUtils.META_HEAD_GTASK_ID);
+                mMetaInfo = new JSONObject(notes);
+                mRelatedGid = mMetaInfo.getString(GTaskStringUtils.META_HEAD_GTASK_ID);
             } catch (JSONException e) {
                 Log.w(TAG, "failed to get related gid");
                 mRelatedGid = null;
@@ -79,4 +130,58 @@ public class MetaData extends Task {
         throw new IllegalAccessError("MetaData:getSyncAction should not be called");
     }
 
+    /**
+     * The compact form of the meta info, or the json if that is shorter
+     */
+    static String encode(String gid, String json) {
+        try {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflater.setInput(json.getBytes("UTF-8"));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(json.length() / 2);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+
+            String compact = COMPACT_PREFIX + gid + ":"
+                    + Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+            return compact.length() < json.length() ? compact : json;
+        } catch (UnsupportedEncodingException e) {
+            Log.e(TAG, e.toString());
+            return json;
+        }
+    }
+
+    static String decode(String notes) throws JSONException {
+        if (!notes.startsWith(COMPACT_PREFIX)) {
+            return notes;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.decode(notes.substring(notes.lastIndexOf(':') + 1),
+                    Base64.NO_WRAP));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(notes.length() * 2);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new JSONException("truncated meta info");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("bad meta info encoding");
+        } catch (DataFormatException e) {
+            throw new JSONException("bad meta info encoding");
+        } catch (UnsupportedEncodingException e) {
+            throw new JSONException("bad meta info encoding");
+        } finally {
+            inflater.end();
+        }
+    }
+
 }
@@ -39,6 +39,9 @@ public abstract class Node {
 
     public static final int SYNC_ACTION_ERROR = 8;
 
+    // both sides have the same content, only the sync id is recorded
+    public static final int SYNC_ACTION_UPDATE_SYNC_ID = 9;
+
     private String mGid;
 
     private String mName;
@@ -16,6 +16,8 @@
 
 package net.micode.notes.gtask.data;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -34,6 +36,8 @@ import net.micode.notes.gtask.exception.ActionFailureException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+
 
 public class SqlData {
     private static final String TAG = SqlData.class.getSimpleName();
@@ -71,6 +75,8 @@ public class SqlData {
 
     private ContentValues mDiffDataValues;
 
+    private int mBatchIndex;
+
     public SqlData(Context context) {
         mContentResolver = context.getContentResolver();
         mIsCreate = true;
@@ -144,8 +150,11 @@ public class SqlData {
         return js;
     }
 
-    public void commit(long noteId, boolean validateVersion, long version) {
-
+    /**
+     * Returns the number of provider operations run
+     */
+    public int commit(long noteId, boolean validateVersion, long version) {
+        int operations = 0;
         if (mIsCreate) {
             if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
                 mDiffDataValues.remove(DataColumns.ID);
@@ -153,6 +162,7 @@ public class SqlData {
 
             mDiffDataValues.put(DataColumns.NOTE_ID, noteId);
             Uri uri = mContentResolver.insert(Notes.CONTENT_DATA_URI, mDiffDataValues);
+            operations++;
             try {
                 mDataId = Long.valueOf(uri.getPathSegments().get(1));
             } catch (NumberFormatException e) {
@@ -173,6 +183,7 @@ public class SqlData {
                                     String.valueOf(noteId), String.valueOf(version)
                             });
                 }
+                operations++;
                 if (result == 0) {
                     Log.w(TAG, "there is no update. maybe user updates note when syncing");
                 }
@@ -181,6 +192,54 @@ public class SqlData {
 
         mDiffDataValues.clear();
         mIsCreate = false;
+        return operations;
+    }
+
+    /**
+     * Add the operation of commit() to ops instead of running it. If the note
+     * is created in the same batch, noteIndex is the index of its insert.
+     * Returns whether the row is inserted with a new id
+     */
+    public boolean commit(long noteId, int noteIndex, boolean validateVersion, long version,
+            ArrayList<ContentProviderOperation> ops) {
+        boolean newId = false;
+        mBatchIndex = -1;
+        if (mIsCreate) {
+            if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
+                mDiffDataValues.remove(DataColumns.ID);
+            }
+            newId = (mDataId == INVALID_ID);
+
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(
+                    Notes.CONTENT_DATA_URI).withValues(mDiffDataValues);
+            if (noteIndex >= 0) {
+                builder.withValueBackReference(DataColumns.NOTE_ID, noteIndex);
+            } else {
+                builder.withValue(DataColumns.NOTE_ID, noteId);
+            }
+            mBatchIndex = ops.size();
+            ops.add(builder.build());
+        } else if (mDiffDataValues.size() > 0) {
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mDataId)).withValues(
+                    mDiffDataValues);
+            if (validateVersion) {
+                builder.withSelection(" ? in (SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                        + " WHERE " + NoteColumns.VERSION + "=?)", new String[] {
+                        String.valueOf(noteId), String.valueOf(version)
+                });
+            }
+            ops.add(builder.build());
+        }
+        mDiffDataValues.clear();
+        return newId;
+    }
+
+    public void onBatchApplied(ContentProviderResult[] results) {
+        if (mIsCreate) {
+            mDataId = ContentUris.parseId(results[mBatchIndex].uri);
+        }
+        mIsCreate = false;
     }
 
     public long getId() {
@@ -17,7 +17,10 @@
 package net.micode.notes.gtask.data;
 
 import android.appwidget.AppWidgetManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -49,7 +52,7 @@ public class SqlNote {
             NoteColumns.NOTES_COUNT, NoteColumns.PARENT_ID, NoteColumns.SNIPPET, NoteColumns.TYPE,
             NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE, NoteColumns.SYNC_ID,
             NoteColumns.LOCAL_MODIFIED, NoteColumns.ORIGIN_PARENT_ID, NoteColumns.GTASK_ID,
-            NoteColumns.VERSION
+            NoteColumns.VERSION, NoteColumns.CONTENT_HASH
     };
 
     public static final int ID_COLUMN = 0;
@@ -86,6 +89,8 @@ public class SqlNote {
 
     public static final int VERSION_COLUMN = 16;
 
+    public static final int CONTENT_HASH_COLUMN = 17;
+
     private Context mContext;
 
     private ContentResolver mContentResolver;
@@ -122,6 +127,8 @@ public class SqlNote {
 
     private ArrayList<SqlData> mDataList;
 
+    private int mBatchIndex;
+
     public SqlNote(Context context) {
         mContext = context;
         mContentResolver = context.getContentResolver();
@@ -440,13 +447,19 @@ public class SqlNote {
         return mType == Notes.TYPE_NOTE;
     }
 
-    public void commit(boolean validateVersion) {
+    /**
+     * Returns the number of provider operations run, the reload is not
+     * counted
+     */
+    public int commit(boolean validateVersion) {
+        int operations = 0;
         if (mIsCreate) {
             if (mId == INVALID_ID && mDiffNoteValues.containsKey(NoteColumns.ID)) {
                 mDiffNoteValues.remove(NoteColumns.ID);
             }
 
             Uri uri = mContentResolver.insert(Notes.CONTENT_NOTE_URI, mDiffNoteValues);
+            operations++;
             try {
                 mId = Long.valueOf(uri.getPathSegments().get(1));
             } catch (NumberFormatException e) {
@@ -459,7 +472,7 @@ public class SqlNote {
 
             if (mType == Notes.TYPE_NOTE) {
                 for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, false, -1);
+                    operations += sqlData.commit(mId, false, -1);
                 }
             }
         } else {
@@ -482,6 +495,7 @@ public class SqlNote {
                                     String.valueOf(mId), String.valueOf(mVersion)
                             });
                 }
+                operations++;
                 if (result == 0) {
                     Log.w(TAG, "there is no update. maybe user updates note when syncing");
                 }
@@ -489,7 +503,7 @@ public class SqlNote {
 
             if (mType == Notes.TYPE_NOTE) {
                 for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, validateVersion, mVersion);
+                    operations += sqlData.commit(mId, validateVersion, mVersion);
                 }
             }
         }
@@ -501,5 +515,80 @@ public class SqlNote {
 
         mDiffNoteValues.clear();
         mIsCreate = false;
+        return operations;
+    }
+
+    /**
+     * Add the operations of commit() to ops instead of running them, the
+     * note is not reloaded. Call onBatchApplied() with the results of the batch.
+     * Returns whether any row is inserted with a new id
+     */
+    public boolean commit(boolean validateVersion, ArrayList<ContentProviderOperation> ops) {
+        boolean newId = false;
+        mBatchIndex = -1;
+        if (mIsCreate) {
+            if (mId == INVALID_ID && mDiffNoteValues.containsKey(NoteColumns.ID)) {
+                mDiffNoteValues.remove(NoteColumns.ID);
+            }
+            newId = (mId == INVALID_ID);
+
+            mBatchIndex = ops.size();
+            ops.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI).withValues(
+                    mDiffNoteValues).build());
+
+            if (mType == Notes.TYPE_NOTE) {
+                for (SqlData sqlData : mDataList) {
+                    newId |= sqlData.commit(0, mBatchIndex, false, -1, ops);
+                }
+            }
+        } else {
+            if (mId <= 0 && mId != Notes.ID_ROOT_FOLDER && mId != Notes.ID_CALL_RECORD_FOLDER) {
+                Log.e(TAG, "No such note");
+                throw new IllegalStateException("Try to update note with invalid id");
+            }
+            if (mDiffNoteValues.size() > 0) {
+                mVersion ++;
+                ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+                        Notes.CONTENT_NOTE_URI).withValues(mDiffNoteValues);
+                if (!validateVersion) {
+                    builder.withSelection("(" + NoteColumns.ID + "=?)", new String[] {
+                        String.valueOf(mId)
+                    });
+                } else {
+                    builder.withSelection("(" + NoteColumns.ID + "=?) AND ("
+                            + NoteColumns.VERSION + "<=?)", new String[] {
+                            String.valueOf(mId), String.valueOf(mVersion)
+                    });
+                }
+                mBatchIndex = ops.size();
+                ops.add(builder.build());
+            }
+
+            if (mType == Notes.TYPE_NOTE) {
+                for (SqlData sqlData : mDataList) {
+                    newId |= sqlData.commit(mId, -1, validateVersion, mVersion, ops);
+                }
+            }
+        }
+        mDiffNoteValues.clear();
+        return newId;
+    }
+
+    public void onBatchApplied(ContentProviderResult[] results) {
+        if (mIsCreate) {
+            mId = ContentUris.parseId(results[mBatchIndex].uri);
+            if (mId <= 0) {
+                throw new IllegalStateException("Create thread id failed");
+            }
+        } else if (mBatchIndex >= 0 && results[mBatchIndex].count == 0) {
+            Log.w(TAG, "there is no update. maybe user updates note when syncing");
+        }
+
+        if (mType == Notes.TYPE_NOTE) {
+            for (SqlData sqlData : mDataList) {
+                sqlData.onBatchApplied(results);
+            }
+        }
+        mIsCreate = false;
     }
 }
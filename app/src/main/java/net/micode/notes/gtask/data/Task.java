@@ -89,8 +89,9 @@ public class Task extends Node {
             // list_id
             js.put(GTaskStringUtils.GTASK_JSON_LIST_ID, mParent.getGid());
 
-            // prior_sibling_id
-            if (mPriorSibling != null) {
+            // prior_sibling_id, a sibling created in the same batch has no
+            // gid yet and the task is placed by the index alone
+            if (mPriorSibling != null && mPriorSibling.getGid() != null) {
                 js.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, mPriorSibling.getGid());
             }
 
@@ -249,12 +250,7 @@ public class Task extends Node {
 
     public void setMetaInfo(MetaData metaData) {
         if (metaData != null && metaData.getNotes() != null) {
-            try {
-                mMetaInfo = new JSONObject(metaData.getNotes());
-            } catch (JSONException e) {
-                Log.w(TAG, e.toString());
-                mMetaInfo = null;
-            }
+            mMetaInfo = metaData.getMetaInfo();
         }
     }
 
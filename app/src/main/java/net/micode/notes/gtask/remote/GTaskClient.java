@@ -20,8 +20,11 @@ import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.accounts.AccountManagerFuture;
 import android.app.Activity;
+import android.content.Context;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import net.micode.notes.gtask.data.Node;
@@ -32,20 +35,6 @@ import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
 import net.micode.notes.ui.NotesPreferenceActivity;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.cookie.Cookie;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -54,29 +43,30 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 
 public class GTaskClient {
     private static final String TAG = GTaskClient.class.getSimpleName();
 
-    private static final String GTASK_URL = "https://mail.google.com/tasks/";
+    // the batch size grows while the server accepts the batches and is halved
+    // once a batch is rejected
+    private static final int MIN_BATCH_SIZE = 1;
 
-    private static final String GTASK_GET_URL = "https://mail.google.com/tasks/ig";
+    private static final int INIT_BATCH_SIZE = 10;
 
-    private static final String GTASK_POST_URL = "https://mail.google.com/tasks/r/ig";
+    private static final int MAX_BATCH_SIZE = 100;
 
-    private static GTaskClient mInstance = null;
+    private static final int BATCH_SIZE_STEP = 5;
 
-    private DefaultHttpClient mHttpClient;
+    // the characters of the actions in one batch
+    private static final int MAX_BATCH_PAYLOAD = 64 * 1024;
 
-    private String mGetUrl;
+    private static GTaskClient mInstance = null;
 
-    private String mPostUrl;
+    private volatile GTaskTransport mTransport;
 
     private long mClientVersion;
 
@@ -88,18 +78,57 @@ public class GTaskClient {
 
     private Account mAccount;
 
+    // the account logged in without an auth token, set for a local server
+    private Account mTokenlessAccount;
+
     private JSONArray mUpdateArray;
 
+    private int mUpdatePayload;
+
+    private int mBatchSize;
+
+    // the create actions queued, by action id
+    private HashMap<String, PendingCreate> mPendingCreates;
+
+    /**
+     * Told the gid of a created node once the batch with its create action is
+     * posted, the actions which refer to the node are queued then
+     */
+    public interface CreateHandler {
+        void onCreated(Node node) throws NetworkFailureException;
+    }
+
+    private static class PendingCreate {
+        final Node node;
+
+        final CreateHandler handler;
+
+        PendingCreate(Node node, CreateHandler handler) {
+            this.node = node;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Receives the tasks of a task list one by one while the response is
+     * being read
+     */
+    public interface TaskHandler {
+        void onTask(JSONObject js) throws JSONException;
+    }
+
     private GTaskClient() {
-        mHttpClient = null;
-        mGetUrl = GTASK_GET_URL;
-        mPostUrl = GTASK_POST_URL;
+        mTransport = new HttpGTaskTransport();
         mClientVersion = -1;
         mLoggedin = false;
         mLastLoginTime = 0;
         mActionId = 1;
         mAccount = null;
+        mTokenlessAccount = null;
         mUpdateArray = null;
+        mUpdatePayload = 0;
+        mBatchSize = INIT_BATCH_SIZE;
+        mPendingCreates = new HashMap<String, PendingCreate>();
     }
 
     public static synchronized GTaskClient getInstance() {
@@ -109,7 +138,43 @@ public class GTaskClient {
         return mInstance;
     }
 
-    public boolean login(Activity activity) {
+    /**
+     * Replace the transport, the http one is used by default. The new
+     * transport takes effect from the next login
+     */
+    public synchronized void setTransport(GTaskTransport transport) {
+        setTransport(transport, null);
+    }
+
+    /**
+     * Replace the transport with one that needs no auth token, such as a
+     * local task server. With an account set, login skips AccountManager and
+     * the account in the settings, and logs in to the transport as the given
+     * account
+     */
+    public synchronized void setTransport(GTaskTransport transport, Account tokenlessAccount) {
+        mTransport = transport;
+        mTokenlessAccount = tokenlessAccount;
+        mLoggedin = false;
+    }
+
+    public synchronized GTaskTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Abort the requests in flight, it does not wait for the lock held while
+     * posting
+     */
+    public void abort() {
+        mTransport.abort();
+    }
+
+    /**
+     * Login with an activity if the user may be asked for the permission,
+     * any other context is used when syncing in the background
+     */
+    public boolean login(Context activity) {
         // we suppose that the cookie would expire after 5 minutes
         // then we need to re-login
         final long interval = 1000 * 60 * 5;
@@ -117,6 +182,15 @@ public class GTaskClient {
             mLoggedin = false;
         }
 
+        if (mTokenlessAccount != null) {
+            if (!mLoggedin) {
+                mLastLoginTime = System.currentTimeMillis();
+                mAccount = mTokenlessAccount;
+                mLoggedin = loginGtask(null, null);
+            }
+            return mLoggedin;
+        }
+
         // need to re-login after account switch
         if (mLoggedin
                 && !TextUtils.equals(getSyncAccount().name, NotesPreferenceActivity
@@ -139,23 +213,16 @@ public class GTaskClient {
         // login with custom domain if necessary
         if (!(mAccount.name.toLowerCase().endsWith("gmail.com") || mAccount.name.toLowerCase()
                 .endsWith("googlemail.com"))) {
-            StringBuilder url = new StringBuilder(GTASK_URL).append("a/");
             int index = mAccount.name.indexOf('@') + 1;
-            String suffix = mAccount.name.substring(index);
-            url.append(suffix + "/");
-            mGetUrl = url.toString() + "ig";
-            mPostUrl = url.toString() + "r/ig";
-
-            if (tryToLoginGtask(activity, authToken)) {
+            String domain = mAccount.name.substring(index);
+            if (tryToLoginGtask(activity, domain, authToken)) {
                 mLoggedin = true;
             }
         }
 
         // try to login with google official url
         if (!mLoggedin) {
-            mGetUrl = GTASK_GET_URL;
-            mPostUrl = GTASK_POST_URL;
-            if (!tryToLoginGtask(activity, authToken)) {
+            if (!tryToLoginGtask(activity, null, authToken)) {
                 return false;
             }
         }
@@ -164,7 +231,7 @@ public class GTaskClient {
         return true;
     }
 
-    private String loginGoogleAccount(Activity activity, boolean invalidateToken) {
+    private String loginGoogleAccount(Context activity, boolean invalidateToken) {
         String authToken;
         AccountManager accountManager = AccountManager.get(activity);
         Account[] accounts = accountManager.getAccountsByType("com.google");
@@ -190,8 +257,15 @@ public class GTaskClient {
         }
 
         // get the token now
-        AccountManagerFuture<Bundle> accountManagerFuture = accountManager.getAuthToken(account,
-                "goanna_mobile", null, activity, null, null);
+        AccountManagerFuture<Bundle> accountManagerFuture;
+        if (activity instanceof Activity) {
+            accountManagerFuture = accountManager.getAuthToken(account, "goanna_mobile", null,
+                    (Activity) activity, null, null);
+        } else {
+            // notify the user if the permission is needed
+            accountManagerFuture = accountManager.getAuthToken(account, "goanna_mobile", null,
+                    true, null, null);
+        }
         try {
             Bundle authTokenBundle = accountManagerFuture.getResult();
             authToken = authTokenBundle.getString(AccountManager.KEY_AUTHTOKEN);
@@ -207,8 +281,8 @@ public class GTaskClient {
         return authToken;
     }
 
-    private boolean tryToLoginGtask(Activity activity, String authToken) {
-        if (!loginGtask(authToken)) {
+    private boolean tryToLoginGtask(Context activity, String domain, String authToken) {
+        if (!loginGtask(domain, authToken)) {
             // maybe the auth token is out of date, now let's invalidate the
             // token and try again
             authToken = loginGoogleAccount(activity, true);
@@ -217,7 +291,7 @@ public class GTaskClient {
                 return false;
             }
 
-            if (!loginGtask(authToken)) {
+            if (!loginGtask(domain, authToken)) {
                 Log.e(TAG, "login gtask failed");
                 return false;
             }
@@ -225,52 +299,27 @@ public class GTaskClient {
         return true;
     }
 
-    private boolean loginGtask(String authToken) {
-        int timeoutConnection = 10000;
-        int timeoutSocket = 15000;
-        HttpParams httpParameters = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(httpParameters, timeoutConnection);
-        HttpConnectionParams.setSoTimeout(httpParameters, timeoutSocket);
-        mHttpClient = new DefaultHttpClient(httpParameters);
-        BasicCookieStore localBasicCookieStore = new BasicCookieStore();
-        mHttpClient.setCookieStore(localBasicCookieStore);
-        HttpProtocolParams.setUseExpectContinue(mHttpClient.getParams(), false);
-
-        // login gtask
+    private boolean loginGtask(String domain, String authToken) {
         try {
-            String loginUrl = mGetUrl + "?auth=" + authToken;
-            HttpGet httpGet = new HttpGet(loginUrl);
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
-
-            // get the cookie now
-            List<Cookie> cookies = mHttpClient.getCookieStore().getCookies();
-            boolean hasAuthCookie = false;
-            for (Cookie cookie : cookies) {
-                if (cookie.getName().contains("GTL")) {
-                    hasAuthCookie = true;
+            // get the client version
+            JsonReader reader = openSetupReader(mTransport.login(domain, authToken));
+            try {
+                mClientVersion = -1;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("v")) {
+                        mClientVersion = reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
                 }
+            } finally {
+                reader.close();
             }
-            if (!hasAuthCookie) {
-                Log.w(TAG, "it seems that there is no auth cookie");
-            }
-
-            // get the client version
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
+            if (mClientVersion == -1) {
+                Log.e(TAG, "no client version in the setup data");
+                return false;
             }
-            JSONObject js = new JSONObject(jsString);
-            mClientVersion = js.getLong("v");
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            return false;
         } catch (Exception e) {
             // simply catch all exceptions
             Log.e(TAG, "httpget gtask_url failed");
@@ -280,32 +329,11 @@ public class GTaskClient {
         return true;
     }
 
-    private int getActionId() {
+    private synchronized int getActionId() {
         return mActionId++;
     }
 
-    private HttpPost createHttpPost() {
-        HttpPost httpPost = new HttpPost(mPostUrl);
-        httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
-        httpPost.setHeader("AT", "1");
-        return httpPost;
-    }
-
-    private String getResponseContent(HttpEntity entity) throws IOException {
-        String contentEncoding = null;
-        if (entity.getContentEncoding() != null) {
-            contentEncoding = entity.getContentEncoding().getValue();
-            Log.d(TAG, "encoding: " + contentEncoding);
-        }
-
-        InputStream input = entity.getContent();
-        if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
-            input = new GZIPInputStream(entity.getContent());
-        } else if (contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate")) {
-            Inflater inflater = new Inflater(true);
-            input = new InflaterInputStream(entity.getContent(), inflater);
-        }
-
+    private String getResponseContent(InputStream input) throws IOException {
         try {
             InputStreamReader isr = new InputStreamReader(input);
             BufferedReader br = new BufferedReader(isr);
@@ -323,28 +351,19 @@ public class GTaskClient {
         }
     }
 
-    private JSONObject postRequest(JSONObject js) throws NetworkFailureException {
+    private InputStream executePost(JSONObject js) throws IOException {
         if (!mLoggedin) {
             Log.e(TAG, "please login first");
             throw new ActionFailureException("not logged in");
         }
+        return mTransport.post(js.toString());
+    }
 
-        HttpPost httpPost = createHttpPost();
+    private JSONObject postRequest(JSONObject js) throws NetworkFailureException {
         try {
-            LinkedList<BasicNameValuePair> list = new LinkedList<BasicNameValuePair>();
-            list.add(new BasicNameValuePair("r", js.toString()));
-            UrlEncodedFormEntity entity = new UrlEncodedFormEntity(list, "UTF-8");
-            httpPost.setEntity(entity);
-
-            // execute the post
-            HttpResponse response = mHttpClient.execute(httpPost);
-            String jsString = getResponseContent(response.getEntity());
+            String jsString = getResponseContent(executePost(js));
             return new JSONObject(jsString);
 
-        } catch (ClientProtocolException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new NetworkFailureException("postRequest failed");
         } catch (IOException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -353,6 +372,8 @@ public class GTaskClient {
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new ActionFailureException("unable to convert response content to jsonobject");
+        } catch (ActionFailureException e) {
+            throw e;
         } catch (Exception e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -360,99 +381,197 @@ public class GTaskClient {
         }
     }
 
-    public void createTask(Task task) throws NetworkFailureException {
+    /**
+     * Queue the create action of the task like any other action. The task is
+     * given its gid and the handler is told once the batch is posted, until
+     * then the task has no gid and nothing may refer to it
+     */
+    public synchronized void createTask(Task task, CreateHandler handler)
+            throws NetworkFailureException {
+        addCreateAction(task, task.getCreateAction(getActionId()), handler);
+    }
+
+    /**
+     * The list is created at once together with the actions queued, the tasks
+     * to be created in it need its gid
+     */
+    public synchronized void createTaskList(TaskList tasklist) throws NetworkFailureException {
+        addCreateAction(tasklist, tasklist.getCreateAction(getActionId()), null);
         commitUpdate();
-        try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
+    }
 
-            // action_list
-            actionList.put(task.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
+    private void addCreateAction(Node node, JSONObject action, CreateHandler handler)
+            throws NetworkFailureException {
+        addAction(action);
+        mPendingCreates.put(action.optString(GTaskStringUtils.GTASK_JSON_ACTION_ID),
+                new PendingCreate(node, handler));
+    }
 
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+    /**
+     * Post the queued actions. The handlers of the nodes created could queue
+     * more, they are posted too
+     */
+    public synchronized void commitUpdate() throws NetworkFailureException {
+        while (mUpdateArray != null) {
+            postUpdate();
+        }
+    }
 
-            // post
-            JSONObject jsResponse = postRequest(jsPost);
-            JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-                    GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-            task.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
+    private void postUpdate() throws NetworkFailureException {
+        JSONArray actions = mUpdateArray;
+        // the pending actions are kept if the post fails
+        JSONObject jsResponse = postActions(actions);
+        mUpdateArray = null;
+        mUpdatePayload = 0;
 
+        ArrayList<PendingCreate> created = getCreated(actions, jsResponse);
+        for (PendingCreate create : created) {
+            if (create.handler != null) {
+                create.handler.onCreated(create.node);
+            }
+        }
+    }
+
+    /**
+     * Give the nodes created by the actions their new ids, each is found by
+     * the action id of its create action
+     */
+    private ArrayList<PendingCreate> getCreated(JSONArray actions, JSONObject jsResponse) {
+        ArrayList<PendingCreate> created = new ArrayList<PendingCreate>();
+        if (mPendingCreates.isEmpty()) {
+            return created;
+        }
+
+        try {
+            HashMap<String, String> newIds = null;
+            for (int i = 0; i < actions.length(); i++) {
+                String actionId = actions.getJSONObject(i).optString(
+                        GTaskStringUtils.GTASK_JSON_ACTION_ID);
+                PendingCreate create = mPendingCreates.remove(actionId);
+                if (create == null) {
+                    continue;
+                }
+
+                if (newIds == null) {
+                    newIds = new HashMap<String, String>();
+                    JSONArray jsResults = jsResponse.getJSONArray(
+                            GTaskStringUtils.GTASK_JSON_RESULTS);
+                    for (int j = 0; j < jsResults.length(); j++) {
+                        JSONObject jsResult = jsResults.getJSONObject(j);
+                        if (jsResult.has(GTaskStringUtils.GTASK_JSON_NEW_ID)) {
+                            newIds.put(jsResult.optString(GTaskStringUtils.GTASK_JSON_ACTION_ID),
+                                    jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
+                        }
+                    }
+                }
+                String newId = newIds.get(actionId);
+                if (newId == null) {
+                    throw new ActionFailureException("create: no new id for action " + actionId);
+                }
+                create.node.setGid(newId);
+                created.add(create);
+            }
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
-            throw new ActionFailureException("create task: handing jsonobject failed");
+            throw new ActionFailureException("create: handing jsonobject failed");
         }
+        return created;
     }
 
-    public void createTaskList(TaskList tasklist) throws NetworkFailureException {
-        commitUpdate();
+    private synchronized JSONObject postActions(JSONArray actions) throws NetworkFailureException {
         try {
             JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
 
             // action_list
-            actionList.put(tasklist.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
+            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actions);
 
-            // client version
+            // client_version
             jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
 
-            // post
             JSONObject jsResponse = postRequest(jsPost);
-            JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-                    GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-            tasklist.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
-
+            GTaskSyncStats.getLast().onBatchPosted(actions.length());
+            if (actions.length() >= mBatchSize) {
+                mBatchSize = Math.min(mBatchSize + BATCH_SIZE_STEP, MAX_BATCH_SIZE);
+            }
+            return jsResponse;
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
-            throw new ActionFailureException("create tasklist: handing jsonobject failed");
+            throw new ActionFailureException("commit update: handing jsonobject failed");
+        } catch (ActionFailureException e) {
+            if (actions.length() <= MIN_BATCH_SIZE) {
+                throw e;
+            }
+            // the stride is local, the nested posts change mBatchSize, which is
+            // only the hint for the next batch
+            int partSize = Math.max(actions.length() / 2, MIN_BATCH_SIZE);
+            mBatchSize = partSize;
+            Log.w(TAG, "batch of " + actions.length() + " actions failed, batch size is now "
+                    + mBatchSize);
+
+            // only updates are safe to post again, the server may have applied
+            // part of the batch
+            if (!isUpdateOnly(actions)) {
+                throw e;
+            }
+            try {
+                JSONObject jsResponse = null;
+                for (int i = 0; i < actions.length(); i += partSize) {
+                    JSONArray part = new JSONArray();
+                    for (int j = i; j < Math.min(i + partSize, actions.length()); j++) {
+                        part.put(actions.get(j));
+                    }
+                    jsResponse = postActions(part);
+                }
+                return jsResponse;
+            } catch (JSONException je) {
+                Log.e(TAG, je.toString());
+                je.printStackTrace();
+                throw new ActionFailureException("commit update: handing jsonobject failed");
+            }
         }
     }
 
-    public void commitUpdate() throws NetworkFailureException {
-        if (mUpdateArray != null) {
-            try {
-                JSONObject jsPost = new JSONObject();
-
-                // action_list
-                jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, mUpdateArray);
+    private boolean isUpdateOnly(JSONArray actions) {
+        for (int i = 0; i < actions.length(); i++) {
+            JSONObject action = actions.optJSONObject(i);
+            if (action == null
+                    || !GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE.equals(action
+                            .optString(GTaskStringUtils.GTASK_JSON_ACTION_TYPE))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                // client_version
-                jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+    private synchronized void addAction(JSONObject action) throws NetworkFailureException {
+        // too many or too large update items may result in an error
+        int size = action.toString().length();
+        if (mUpdateArray != null
+                && (mUpdateArray.length() >= mBatchSize || mUpdatePayload + size > MAX_BATCH_PAYLOAD)) {
+            // the actions queued by the handlers of the created nodes go with
+            // the next batch
+            postUpdate();
+        }
 
-                postRequest(jsPost);
-                mUpdateArray = null;
-            } catch (JSONException e) {
-                Log.e(TAG, e.toString());
-                e.printStackTrace();
-                throw new ActionFailureException("commit update: handing jsonobject failed");
-            }
+        if (mUpdateArray == null) {
+            mUpdateArray = new JSONArray();
+            mUpdatePayload = 0;
         }
+        mUpdateArray.put(action);
+        mUpdatePayload += size;
     }
 
-    public void addUpdateNode(Node node) throws NetworkFailureException {
+    public synchronized void addUpdateNode(Node node) throws NetworkFailureException {
         if (node != null) {
-            // too many update items may result in an error
-            // set max to 10 items
-            if (mUpdateArray != null && mUpdateArray.length() > 10) {
-                commitUpdate();
-            }
-
-            if (mUpdateArray == null)
-                mUpdateArray = new JSONArray();
-            mUpdateArray.put(node.getUpdateAction(getActionId()));
+            addAction(node.getUpdateAction(getActionId()));
         }
     }
 
-    public void moveTask(Task task, TaskList preParent, TaskList curParent)
+    public synchronized void moveTask(Task task, TaskList preParent, TaskList curParent)
             throws NetworkFailureException {
-        commitUpdate();
         try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
             JSONObject action = new JSONObject();
 
             // action_list
@@ -471,13 +590,7 @@ public class GTaskClient {
                 // put the dest_list only if moving between tasklists
                 action.put(GTaskStringUtils.GTASK_JSON_DEST_LIST, curParent.getGid());
             }
-            actionList.put(action);
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            postRequest(jsPost);
+            addAction(action);
 
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -486,27 +599,9 @@ public class GTaskClient {
         }
     }
 
-    public void deleteNode(Node node) throws NetworkFailureException {
-        commitUpdate();
-        try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-
-            // action_list
-            node.setDeleted(true);
-            actionList.put(node.getUpdateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            postRequest(jsPost);
-            mUpdateArray = null;
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("delete node: handing jsonobject failed");
-        }
+    public synchronized void deleteNode(Node node) throws NetworkFailureException {
+        node.setDeleted(true);
+        addAction(node.getUpdateAction(getActionId()));
     }
 
     public JSONArray getTaskLists() throws NetworkFailureException {
@@ -514,28 +609,36 @@ public class GTaskClient {
             Log.e(TAG, "please login first");
             throw new ActionFailureException("not logged in");
         }
+        commitUpdate();
 
         try {
-            HttpGet httpGet = new HttpGet(mGetUrl);
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
-
-            // get the task list
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
+            // get the task list, only the lists are kept out of the setup data
+            JSONArray jsLists = null;
+            JsonReader reader = openSetupReader(mTransport.getSetupPage());
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("t")) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals(GTaskStringUtils.GTASK_JSON_LISTS)) {
+                                jsLists = (JSONArray) readJsonValue(reader);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+            } finally {
+                reader.close();
             }
-            JSONObject js = new JSONObject(jsString);
-            return js.getJSONObject("t").getJSONArray(GTaskStringUtils.GTASK_JSON_LISTS);
-        } catch (ClientProtocolException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new NetworkFailureException("gettasklists: httpget failed");
+            if (jsLists == null) {
+                throw new JSONException("no task lists in the setup data");
+            }
+            return jsLists;
         } catch (IOException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -544,10 +647,19 @@ public class GTaskClient {
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new ActionFailureException("get task lists: handing jasonobject failed");
+        } catch (RuntimeException e) {
+            // the reader meets a token it does not expect
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("get task lists: unexpected setup data");
         }
     }
 
-    public JSONArray getTaskList(String listGid) throws NetworkFailureException {
+    /**
+     * Read the tasks of the list one by one from the response, the response is
+     * never held in memory as a whole
+     */
+    public void getTaskList(String listGid, TaskHandler handler) throws NetworkFailureException {
         commitUpdate();
         try {
             JSONObject jsPost = new JSONObject();
@@ -566,20 +678,142 @@ public class GTaskClient {
             // client_version
             jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
 
-            JSONObject jsResponse = postRequest(jsPost);
-            return jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_TASKS);
+            JsonReader reader = new JsonReader(new InputStreamReader(executePost(jsPost),
+                    "UTF-8"));
+            try {
+                boolean hasTasks = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals(GTaskStringUtils.GTASK_JSON_TASKS)) {
+                        hasTasks = true;
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            handler.onTask((JSONObject) readJsonValue(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!hasTasks) {
+                    throw new JSONException("no tasks in the response");
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("get task list: httppost failed");
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new ActionFailureException("get task list: handing jsonobject failed");
+        } catch (ActionFailureException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // the reader meets a token it does not expect
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("get task list: unexpected response");
         }
     }
 
+    /**
+     * Skip the page up to the json object passed to _setup() and return a
+     * reader positioned at it
+     */
+    private JsonReader openSetupReader(InputStream input) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        String jsBegin = "_setup(";
+        int matched = 0;
+        while (matched < jsBegin.length()) {
+            int c = reader.read();
+            if (c == -1) {
+                reader.close();
+                throw new IOException("no setup data in the page");
+            }
+            if (c == jsBegin.charAt(matched)) {
+                matched++;
+            } else {
+                matched = (c == jsBegin.charAt(0)) ? 1 : 0;
+            }
+        }
+
+        // the setup data is javascript rather than strict json
+        JsonReader jsReader = new JsonReader(reader);
+        jsReader.setLenient(true);
+        return jsReader;
+    }
+
+    private Object readJsonValue(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT) {
+            JSONObject js = new JSONObject();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                js.put(reader.nextName(), readJsonValue(reader));
+            }
+            reader.endObject();
+            return js;
+        } else if (token == JsonToken.BEGIN_ARRAY) {
+            JSONArray js = new JSONArray();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                js.put(readJsonValue(reader));
+            }
+            reader.endArray();
+            return js;
+        } else if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        } else if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return JSONObject.NULL;
+        } else if (token == JsonToken.NUMBER) {
+            String number = reader.nextString();
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return Double.parseDouble(number);
+            }
+        }
+        return reader.nextString();
+    }
+
     public Account getSyncAccount() {
         return mAccount;
     }
 
-    public void resetUpdateArray() {
+    /**
+     * The actions not posted yet, or null if there is none. The create actions
+     * are left out, the notes they are for are not marked as synced and are
+     * created by the next sync
+     */
+    public synchronized JSONArray getPendingActions() {
+        if (mUpdateArray == null || mPendingCreates.isEmpty()) {
+            return mUpdateArray;
+        }
+
+        JSONArray actions = new JSONArray();
+        for (int i = 0; i < mUpdateArray.length(); i++) {
+            JSONObject action = mUpdateArray.optJSONObject(i);
+            if (action != null && !mPendingCreates.containsKey(action
+                    .optString(GTaskStringUtils.GTASK_JSON_ACTION_ID))) {
+                actions.put(action);
+            }
+        }
+        return actions.length() > 0 ? actions : null;
+    }
+
+    public synchronized void restorePendingActions(JSONArray actions) {
+        mUpdateArray = actions;
+        mUpdatePayload = actions.toString().length();
+    }
+
+    public synchronized void resetUpdateArray() {
         mUpdateArray = null;
+        mUpdatePayload = 0;
+        mPendingCreates.clear();
     }
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * The tasks of the lists downloaded by a sync which has not finished, so that
+ * the next sync does not download them again. A list is kept with its
+ * last_modified and only given back for the same last_modified, a list
+ * changed since is downloaded again. The tasks are written and read one by
+ * one, a list is never held whole
+ */
+public class GTaskListCache {
+    private static final String TAG = GTaskListCache.class.getSimpleName();
+
+    private static final String CACHE_DIR_NAME = "gtask_lists";
+
+    private final File mDir;
+
+    public GTaskListCache(Context context) {
+        mDir = getDir(context);
+    }
+
+    private static File getDir(Context context) {
+        return new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    /**
+     * Give the tasks of the list saved for the given last_modified to the
+     * handler one by one. Return false if there is none or the saved list is
+     * bad, the tasks given before are then to be dropped
+     */
+    public boolean load(String listGid, long lastModified, GTaskClient.TaskHandler handler) {
+        File file = getFile(listGid, lastModified);
+        if (file == null || !file.exists()) {
+            return false;
+        }
+
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            reader.beginArray();
+            while (reader.hasNext()) {
+                handler.onTask(readObject(reader));
+            }
+            reader.endArray();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read the task list " + listGid + ": " + e.toString());
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "bad saved task list " + listGid + ": " + e.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "bad saved task list " + listGid + ": " + e.toString());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        file.delete();
+        return false;
+    }
+
+    private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject js = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            js.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return js;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.valueOf(number);
+                } catch (NumberFormatException e) {
+                    return Double.valueOf(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    /**
+     * Start saving the tasks of the list as they are downloaded, null if the
+     * list can not be saved
+     */
+    public ListWriter openWriter(String listGid, long lastModified) {
+        File file = getFile(listGid, lastModified);
+        if (file == null || (!mDir.exists() && !mDir.mkdirs())) {
+            return null;
+        }
+        // a list saved before is of another last_modified, it is out of date
+        remove(listGid);
+
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        try {
+            return new ListWriter(listGid, file, tmp);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to save the task list " + listGid + ": " + e.toString());
+            tmp.delete();
+            return null;
+        }
+    }
+
+    /**
+     * The tasks of a list written as they arrive. They are only read back
+     * once the list is committed, a partly written list never is
+     */
+    public class ListWriter {
+        private final String mListGid;
+
+        private final File mFile;
+
+        private final File mTmp;
+
+        private Writer mWriter;
+
+        private boolean mEmpty = true;
+
+        private ListWriter(String listGid, File file, File tmp) throws IOException {
+            mListGid = listGid;
+            mFile = file;
+            mTmp = tmp;
+            mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    "UTF-8"));
+            mWriter.write('[');
+        }
+
+        public void write(JSONObject task) {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                if (!mEmpty) {
+                    mWriter.write(',');
+                }
+                mWriter.write(task.toString());
+                mEmpty = false;
+            } catch (IOException e) {
+                Log.e(TAG, "failed to save the task list " + mListGid + ": " + e.toString());
+                abort();
+            }
+        }
+
+        /**
+         * The list is complete, it is read back from now on
+         */
+        public void commit() {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                mWriter.write(']');
+                mWriter.close();
+                mWriter = null;
+                if (!mTmp.renameTo(mFile)) {
+                    Log.e(TAG, "failed to save the task list " + mListGid);
+                    mTmp.delete();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "failed to save the task list " + mListGid + ": " + e.toString());
+                abort();
+            }
+        }
+
+        /**
+         * Drop the tasks written, the download of the list has failed
+         */
+        public void abort() {
+            if (mWriter != null) {
+                try {
+                    mWriter.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+                mWriter = null;
+            }
+            mTmp.delete();
+        }
+    }
+
+    private void remove(String listGid) {
+        final String prefix = encode(listGid) + "_";
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Forget all the lists, once a sync has finished or the account is changed
+     */
+    public static void clear(Context context) {
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private File getFile(String listGid, long lastModified) {
+        // a list without last_modified can not be told apart from a changed one
+        if (listGid == null || lastModified == 0) {
+            return null;
+        }
+        return new File(mDir, encode(listGid) + "_" + lastModified);
+    }
+
+    /**
+     * The gid in hex, it is safe for a file name and no two gids share one
+     */
+    private static String encode(String gid) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < gid.length(); i++) {
+            sb.append(String.format("%04x", (int) gid.charAt(i)));
+        }
+        return sb.toString();
+    }
+}
@@ -17,16 +17,24 @@
 package net.micode.notes.gtask.remote;
 
 import android.app.Activity;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
+import net.micode.notes.BuildConfig;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.gtask.data.MetaData;
 import net.micode.notes.gtask.data.Node;
@@ -35,17 +43,27 @@ import net.micode.notes.gtask.data.Task;
 import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
+import net.micode.notes.tool.ContentHashUtils;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.ui.NotesPreferenceActivity;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public class GTaskManager {
@@ -61,6 +79,31 @@ public class GTaskManager {
 
     public static final int STATE_SYNC_CANCELLED = 4;
 
+    /**
+     * Latest last_modified of every remote task list seen by the last successful
+     * sync, keyed by the list gid
+     */
+    private static final String SYNC_POINT_PREFERENCE_NAME = "gtask_sync_points";
+
+    /**
+     * What an interrupted sync leaves to the next one
+     */
+    private static final String SESSION_PREFERENCE_NAME = "gtask_sync_session";
+
+    private static final String SESSION_PENDING_ACTIONS = "pending_actions";
+
+    // task lists downloaded at the same time
+    private static final int FETCH_THREADS = 4;
+
+    // how often a cancel is checked while waiting for the downloads
+    private static final long FETCH_POLL_INTERVAL = 200;
+
+    // local operations applied in one transaction
+    private static final int LOCAL_BATCH_SIZE = 200;
+
+    // progress of a phase is published at most this often
+    private static final long PROGRESS_INTERVAL = 500;
+
     private static GTaskManager mInstance = null;
 
     private Activity mActivity;
@@ -71,7 +114,7 @@ public class GTaskManager {
 
     private boolean mSyncing;
 
-    private boolean mCancelled;
+    private volatile boolean mCancelled;
 
     private HashMap<String, TaskList> mGTaskListHashMap;
 
@@ -87,6 +130,46 @@ public class GTaskManager {
 
     private HashMap<Long, String> mNidToGid;
 
+    private boolean mIncremental;
+
+    private HashSet<String> mSkippedListGids;
+
+    private HashSet<String> mDirtyListGids;
+
+    // the last_modified of the lists as this sync has seen them
+    private HashMap<String, Long> mSyncPoints;
+
+    // the lists downloaded by an unfinished sync
+    private GTaskListCache mListCache;
+
+    private ArrayList<ContentProviderOperation> mLocalOps;
+
+    private ArrayList<SqlNote> mPendingSqlNotes;
+
+    private ArrayList<Node> mPendingNodes;
+
+    private boolean mLocalBatchNewIds;
+
+    // ids taken in the database, loaded once needed and kept up to date with
+    // the rows this sync inserts
+    private HashSet<Long> mNoteIds;
+
+    private HashSet<Long> mDataIds;
+
+    // the largest ids known to be taken, a row inserted with a new id by the
+    // pending batch gets an id above them
+    private long mMaxNoteId;
+
+    private long mMaxDataId;
+
+    private GTaskSyncTask mSyncTask;
+
+    private String mProgressPhase;
+
+    private long mPhaseStartTime;
+
+    private long mLastProgressTime;
+
     private GTaskManager() {
         mSyncing = false;
         mCancelled = false;
@@ -97,6 +180,16 @@ public class GTaskManager {
         mLocalDeleteIdMap = new HashSet<Long>();
         mGidToNid = new HashMap<String, Long>();
         mNidToGid = new HashMap<Long, String>();
+        mIncremental = false;
+        mSkippedListGids = new HashSet<String>();
+        mDirtyListGids = new HashSet<String>();
+        mSyncPoints = new HashMap<String, Long>();
+        mLocalOps = null;
+        mPendingSqlNotes = new ArrayList<SqlNote>();
+        mPendingNodes = new ArrayList<Node>();
+        mLocalBatchNewIds = false;
+        mNoteIds = null;
+        mDataIds = null;
     }
 
     public static synchronized GTaskManager getInstance() {
@@ -111,13 +204,15 @@ public class GTaskManager {
         mActivity = activity;
     }
 
-    public int sync(Context context, GTaskASyncTask asyncTask) {
+    public int sync(Context context, GTaskSyncTask syncTask) {
         if (mSyncing) {
             Log.d(TAG, "Sync is in progress");
             return STATE_SYNC_IN_PROGRESS;
         }
         mContext = context;
         mContentResolver = mContext.getContentResolver();
+        mSyncTask = syncTask;
+        mProgressPhase = null;
         mSyncing = true;
         mCancelled = false;
         mGTaskListHashMap.clear();
@@ -126,35 +221,61 @@ public class GTaskManager {
         mLocalDeleteIdMap.clear();
         mGidToNid.clear();
         mNidToGid.clear();
-
+        mSkippedListGids.clear();
+        mDirtyListGids.clear();
+        mSyncPoints.clear();
+        mListCache = new GTaskListCache(mContext);
+        GTaskSyncStats stats = GTaskSyncStats.begin();
+        int result = STATE_INTERNAL_ERROR;
+
+        // the list and widgets are refreshed once when sync finishes
+        DataUtils.beginNotifyBatch(mContentResolver);
         try {
             GTaskClient client = GTaskClient.getInstance();
             client.resetUpdateArray();
 
             // login google task
             if (!mCancelled) {
-                if (!client.login(mActivity)) {
+                publishProgress(GTaskSyncStats.PHASE_LOGIN, 0, 0);
+                stats.beginPhase(GTaskSyncStats.PHASE_LOGIN);
+                if (!client.login(mActivity != null ? mActivity : mContext)) {
                     throw new NetworkFailureException("login google task failed");
                 }
+                stats.endPhase(GTaskSyncStats.PHASE_LOGIN);
             }
 
+            // post what the last sync did not manage to
+            resumeSession();
+
+            // only download the task lists changed since last sync if nothing
+            // synced before has been changed locally
+            mIncremental = hasSyncPoints() && !hasLocalSyncedChanges();
+
             // get the task list from google
-            asyncTask.publishProgess(mContext.getString(R.string.sync_progress_init_list));
-            initGTaskList();
+            publishProgress(GTaskSyncStats.PHASE_INIT_LIST, 0, 0);
+            stats.beginPhase(GTaskSyncStats.PHASE_INIT_LIST);
+            initGTaskList(false);
+            stats.endPhase(GTaskSyncStats.PHASE_INIT_LIST);
 
             // do content sync work
-            asyncTask.publishProgess(mContext.getString(R.string.sync_progress_syncing));
             syncContent();
+
+            if (!mCancelled) {
+                saveSyncPoints();
+                GTaskListCache.clear(mContext);
+            }
+            result = mCancelled ? STATE_SYNC_CANCELLED : STATE_SUCCESS;
         } catch (NetworkFailureException e) {
             Log.e(TAG, e.toString());
-            return STATE_NETWORK_ERROR;
+            // the requests in flight fail once the sync is cancelled
+            result = mCancelled ? STATE_SYNC_CANCELLED : STATE_NETWORK_ERROR;
         } catch (ActionFailureException e) {
             Log.e(TAG, e.toString());
-            return STATE_INTERNAL_ERROR;
+            result = mCancelled ? STATE_SYNC_CANCELLED : STATE_INTERNAL_ERROR;
         } catch (Exception e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
-            return STATE_INTERNAL_ERROR;
+            result = mCancelled ? STATE_SYNC_CANCELLED : STATE_INTERNAL_ERROR;
         } finally {
             mGTaskListHashMap.clear();
             mGTaskHashMap.clear();
@@ -162,21 +283,62 @@ public class GTaskManager {
             mLocalDeleteIdMap.clear();
             mGidToNid.clear();
             mNidToGid.clear();
+            mSkippedListGids.clear();
+            mDirtyListGids.clear();
+            mSyncPoints.clear();
+            mLocalOps = null;
+            mPendingSqlNotes.clear();
+            mPendingNodes.clear();
+            mLocalBatchNewIds = false;
+            mNoteIds = null;
+            mDataIds = null;
+            saveSession();
+            DataUtils.endNotifyBatch(mContentResolver);
+            mSyncTask = null;
             mSyncing = false;
+
+            stats.finish(result);
+            Log.d(TAG, "sync stats:\n" + stats.getReport());
+            // the report file is for debugging, release builds only log it
+            if (BuildConfig.DEBUG) {
+                stats.exportReport(mContext);
+            }
         }
 
-        return mCancelled ? STATE_SYNC_CANCELLED : STATE_SUCCESS;
+        return result;
     }
 
-    private void initGTaskList() throws NetworkFailureException {
+    /**
+     * Load the remote task lists, tasks of the lists which are not changed are
+     * not downloaded. With refresh set, only the lists written by this sync are
+     * downloaded again for their new last_modified
+     */
+    private void initGTaskList(boolean refresh) throws NetworkFailureException {
         if (mCancelled)
             return;
         GTaskClient client = GTaskClient.getInstance();
         try {
             JSONArray jsTaskLists = client.getTaskLists();
 
+            // find the task lists to download
+            HashSet<String> fetchGids = new HashSet<String>();
+            for (int i = 0; i < jsTaskLists.length(); i++) {
+                JSONObject object = jsTaskLists.getJSONObject(i);
+                String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
+                String name = object.getString(GTaskStringUtils.GTASK_JSON_NAME);
+                long lastModified = object.optLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, 0);
+
+                if (name.startsWith(GTaskStringUtils.MIUI_FOLDER_PREFFIX)
+                        && !name.equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX
+                                + GTaskStringUtils.FOLDER_META)
+                        && !isListUnchanged(gid, lastModified, refresh)) {
+                    fetchGids.add(gid);
+                }
+            }
+
             // init meta list first
             mMetaList = null;
+            String metaGid = null;
             for (int i = 0; i < jsTaskLists.length(); i++) {
                 JSONObject object = jsTaskLists.getJSONObject(i);
                 String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
@@ -187,18 +349,9 @@ public class GTaskManager {
                     mMetaList = new TaskList();
                     mMetaList.setContentByRemoteJSON(object);
 
-                    // load meta data
-                    JSONArray jsMetas = client.getTaskList(gid);
-                    for (int j = 0; j < jsMetas.length(); j++) {
-                        object = (JSONObject) jsMetas.getJSONObject(j);
-                        MetaData metaData = new MetaData();
-                        metaData.setContentByRemoteJSON(object);
-                        if (metaData.isWorthSaving()) {
-                            mMetaList.addChildTask(metaData);
-                            if (metaData.getGid() != null) {
-                                mMetaHashMap.put(metaData.getRelatedGid(), metaData);
-                            }
-                        }
+                    // meta data is only used by the tasks to download
+                    if (!refresh && !fetchGids.isEmpty()) {
+                        metaGid = gid;
                     }
                 }
             }
@@ -212,6 +365,7 @@ public class GTaskManager {
             }
 
             // init task list
+            ArrayList<TaskList> fetchLists = new ArrayList<TaskList>();
             for (int i = 0; i < jsTaskLists.length(); i++) {
                 JSONObject object = jsTaskLists.getJSONObject(i);
                 String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
@@ -225,21 +379,23 @@ public class GTaskManager {
                     mGTaskListHashMap.put(gid, tasklist);
                     mGTaskHashMap.put(gid, tasklist);
 
-                    // load tasks
-                    JSONArray jsTasks = client.getTaskList(gid);
-                    for (int j = 0; j < jsTasks.length(); j++) {
-                        object = (JSONObject) jsTasks.getJSONObject(j);
-                        gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
-                        Task task = new Task();
-                        task.setContentByRemoteJSON(object);
-                        if (task.isWorthSaving()) {
-                            task.setMetaInfo(mMetaHashMap.get(gid));
-                            tasklist.addChildTask(task);
-                            mGTaskHashMap.put(gid, task);
-                        }
+                    // a list not written by this sync keeps the last_modified
+                    // of the first fetch, a remote change made since is not
+                    // seen yet
+                    if (!refresh || mDirtyListGids.contains(gid) || !mSyncPoints.containsKey(gid)) {
+                        mSyncPoints.put(gid, tasklist.getLastModified());
                     }
+
+                    if (!fetchGids.contains(gid)) {
+                        mSkippedListGids.add(gid);
+                        continue;
+                    }
+                    fetchLists.add(tasklist);
                 }
             }
+
+            // load meta data and tasks
+            fetchTaskLists(metaGid, fetchLists);
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -247,73 +403,325 @@ public class GTaskManager {
         }
     }
 
-    private void syncContent() throws NetworkFailureException {
-        int syncType;
-        Cursor c = null;
-        String gid;
-        Node node;
-
-        mLocalDeleteIdMap.clear();
-
-        if (mCancelled) {
+    /**
+     * Download the lists at the same time, the results are merged in the order
+     * of the lists once the meta data is there
+     */
+    private void fetchTaskLists(String metaGid, ArrayList<TaskList> lists)
+            throws NetworkFailureException {
+        if (metaGid == null && lists.isEmpty()) {
             return;
         }
 
-        // for local deleted note
+        ExecutorService executor = Executors.newFixedThreadPool(FETCH_THREADS);
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type<>? AND parent_id=?)", new String[] {
-                            String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, null);
-            if (c != null) {
-                while (c.moveToNext()) {
-                    gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-                    node = mGTaskHashMap.get(gid);
-                    if (node != null) {
-                        mGTaskHashMap.remove(gid);
-                        doContentSync(Node.SYNC_ACTION_DEL_REMOTE, node, c);
+            Future<ArrayList<Task>> metaFuture = null;
+            if (metaGid != null) {
+                metaFuture = executor.submit(new TaskListFetcher(metaGid, mMetaList
+                        .getLastModified(), true));
+            }
+            ArrayList<Future<ArrayList<Task>>> futures = new ArrayList<Future<ArrayList<Task>>>();
+            for (TaskList tasklist : lists) {
+                futures.add(executor.submit(new TaskListFetcher(tasklist.getGid(), tasklist
+                        .getLastModified(), false)));
+            }
+
+            if (metaFuture != null) {
+                ArrayList<Task> metas = waitForFetch(metaFuture);
+                if (metas == null) {
+                    return;
+                }
+                for (Task task : metas) {
+                    MetaData metaData = (MetaData) task;
+                    mMetaList.addChildTask(metaData);
+                    if (metaData.getGid() != null) {
+                        mMetaHashMap.put(metaData.getRelatedGid(), metaData);
                     }
+                }
+            }
 
-                    mLocalDeleteIdMap.add(c.getLong(SqlNote.ID_COLUMN));
+            for (int i = 0; i < lists.size(); i++) {
+                ArrayList<Task> tasks = waitForFetch(futures.get(i));
+                if (tasks == null) {
+                    return;
+                }
+                TaskList tasklist = lists.get(i);
+                for (Task task : tasks) {
+                    task.setMetaInfo(mMetaHashMap.get(task.getGid()));
+                    tasklist.addChildTask(task);
+                    mGTaskHashMap.put(task.getGid(), task);
+                }
+                publishProgress(mProgressPhase, i + 1, lists.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for the download of a list, null is returned once the sync is
+     * cancelled
+     */
+    private ArrayList<Task> waitForFetch(Future<ArrayList<Task>> future)
+            throws NetworkFailureException {
+        while (!mCancelled) {
+            try {
+                return future.get(FETCH_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // check the cancel flag again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ActionFailureException("fetch task list: interrupted");
+            } catch (ExecutionException e) {
+                if (mCancelled) {
+                    return null;
                 }
+                Throwable cause = e.getCause();
+                if (cause instanceof NetworkFailureException) {
+                    throw (NetworkFailureException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                Log.e(TAG, cause.toString());
+                throw new ActionFailureException("fetch task list failed");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Download the tasks of a list, a list downloaded by an interrupted sync
+     * and not changed since is read from {@link GTaskListCache} instead
+     */
+    private class TaskListFetcher implements Callable<ArrayList<Task>> {
+        private String mListGid;
+
+        private long mLastModified;
+
+        private boolean mIsMeta;
+
+        public TaskListFetcher(String listGid, long lastModified, boolean isMeta) {
+            mListGid = listGid;
+            mLastModified = lastModified;
+            mIsMeta = isMeta;
+        }
+
+        public ArrayList<Task> call() throws Exception {
+            final ArrayList<Task> tasks = new ArrayList<Task>();
+            if (mCancelled) {
+                return tasks;
+            }
+
+            if (mListCache.load(mListGid, mLastModified, new GTaskClient.TaskHandler() {
+                public void onTask(JSONObject js) throws JSONException {
+                    addTask(tasks, js);
+                }
+            })) {
+                Log.d(TAG, "task list " + mListGid + " is downloaded already");
+                return tasks;
+            }
+            tasks.clear();
+
+            // the tasks are saved as they arrive, the list is kept once it is complete
+            final GTaskListCache.ListWriter saved = mListCache.openWriter(mListGid, mLastModified);
+            boolean complete = false;
+            try {
+                GTaskClient.getInstance().getTaskList(mListGid, new GTaskClient.TaskHandler() {
+                    public void onTask(JSONObject js) throws JSONException {
+                        if (mCancelled) {
+                            throw new ActionFailureException("fetch task list: cancelled");
+                        }
+                        if (saved != null) {
+                            saved.write(js);
+                        }
+                        addTask(tasks, js);
+                    }
+                });
+                complete = true;
+            } finally {
+                if (saved != null) {
+                    if (complete) {
+                        saved.commit();
+                    } else {
+                        saved.abort();
+                    }
+                }
+            }
+            return tasks;
+        }
+
+        private void addTask(ArrayList<Task> tasks, JSONObject js) throws JSONException {
+            Task task;
+            if (mIsMeta) {
+                task = new MetaData();
             } else {
-                Log.w(TAG, "failed to query trash folder");
+                if (!js.has(GTaskStringUtils.GTASK_JSON_ID)) {
+                    throw new ActionFailureException("fetch task list: task without id in list "
+                            + mListGid);
+                }
+                task = new Task();
+            }
+            task.setContentByRemoteJSON(js);
+            if (task.isWorthSaving()) {
+                tasks.add(task);
+            }
+        }
+    }
+
+    private boolean isListUnchanged(String gid, long lastModified, boolean refresh) {
+        if (refresh) {
+            return !mDirtyListGids.contains(gid);
+        }
+        return mIncremental && lastModified != 0 && lastModified <= getSyncPoint(gid);
+    }
+
+    private boolean isInSkippedList(Cursor c) {
+        String parentGid = mNidToGid.get(c.getLong(SqlNote.PARENT_ID_COLUMN));
+        return parentGid != null && mSkippedListGids.contains(parentGid);
+    }
+
+    /**
+     * Whether any synced note has been modified, moved or trashed locally, the
+     * remote task of such a note could be in any list so all of them are needed
+     */
+    private boolean hasLocalSyncedChanges() {
+        Cursor c = null;
+        try {
+            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, new String[] {
+                    "COUNT(*)"
+            }, "(" + NoteColumns.TYPE + "=? AND " + NoteColumns.GTASK_ID + "<>'' AND ("
+                    + NoteColumns.LOCAL_MODIFIED + "=1 OR " + NoteColumns.PARENT_ID + "=?))",
+                    new String[] {
+                            String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
+                    }, null);
+            if (c != null && c.moveToFirst()) {
+                return c.getInt(0) > 0;
             }
         } finally {
             if (c != null) {
                 c.close();
-                c = null;
             }
         }
+        return true;
+    }
+
+    private boolean hasSyncPoints() {
+        return mContext.getSharedPreferences(SYNC_POINT_PREFERENCE_NAME, Context.MODE_PRIVATE)
+                .getAll().size() > 0;
+    }
+
+    private long getSyncPoint(String listGid) {
+        return mContext.getSharedPreferences(SYNC_POINT_PREFERENCE_NAME, Context.MODE_PRIVATE)
+                .getLong(listGid, 0);
+    }
+
+    private void saveSyncPoints() {
+        SharedPreferences.Editor editor = mContext.getSharedPreferences(
+                SYNC_POINT_PREFERENCE_NAME, Context.MODE_PRIVATE).edit();
+        editor.clear();
+        for (Map.Entry<String, Long> entry : mSyncPoints.entrySet()) {
+            editor.putLong(entry.getKey(), entry.getValue());
+        }
+        editor.commit();
+    }
+
+    /**
+     * Forget the sync points and the interrupted session so that next sync
+     * starts over, it should be called once the sync account has changed
+     */
+    public static void clearSyncPoints(Context context) {
+        context.getSharedPreferences(SYNC_POINT_PREFERENCE_NAME, Context.MODE_PRIVATE).edit()
+                .clear().commit();
+        context.getSharedPreferences(SESSION_PREFERENCE_NAME, Context.MODE_PRIVATE).edit()
+                .clear().commit();
+        GTaskListCache.clear(context);
+    }
+
+    /**
+     * The local notes are marked as synced once their changes are queued, so
+     * the queued actions of an interrupted sync are saved to be posted by the
+     * next one. The lists downloaded are kept by {@link GTaskListCache} as they
+     * arrive, everything else done so far is in the database already
+     */
+    private void saveSession() {
+        JSONArray actions = GTaskClient.getInstance().getPendingActions();
+        if (actions != null && actions.length() > 0) {
+            // the saved ones are restored before any new action is queued
+            Log.d(TAG, "save " + actions.length() + " pending actions");
+            mContext.getSharedPreferences(SESSION_PREFERENCE_NAME, Context.MODE_PRIVATE).edit()
+                    .putString(SESSION_PENDING_ACTIONS, actions.toString()).commit();
+        }
+        GTaskClient.getInstance().resetUpdateArray();
+    }
+
+    private void resumeSession() throws NetworkFailureException {
+        SharedPreferences settings = mContext.getSharedPreferences(SESSION_PREFERENCE_NAME,
+                Context.MODE_PRIVATE);
+        String actions = settings.getString(SESSION_PENDING_ACTIONS, null);
+        if (actions == null) {
+            return;
+        }
+
+        GTaskClient client = GTaskClient.getInstance();
+        try {
+            client.restorePendingActions(new JSONArray(actions));
+            client.commitUpdate();
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            client.resetUpdateArray();
+        } catch (ActionFailureException e) {
+            // the actions may be out of date, do not let them block the sync
+            Log.e(TAG, "drop the pending actions: " + e.toString());
+            client.resetUpdateArray();
+        }
+        settings.edit().remove(SESSION_PENDING_ACTIONS).commit();
+    }
+
+    private void syncContent() throws NetworkFailureException {
+        Cursor c = null;
+        Node node;
+
+        mLocalDeleteIdMap.clear();
+
+        if (mCancelled) {
+            return;
+        }
 
-        // sync folder first
+        // sync local deleted items and folders first
+        GTaskSyncStats stats = GTaskSyncStats.getLast();
+        publishProgress(GTaskSyncStats.PHASE_SYNC_FOLDER, 0, 0);
+        stats.beginPhase(GTaskSyncStats.PHASE_SYNC_FOLDER);
         syncFolder();
+        stats.endPhase(GTaskSyncStats.PHASE_SYNC_FOLDER);
+        publishProgress(GTaskSyncStats.PHASE_SYNC_CONTENT, 0, 0);
+        stats.beginPhase(GTaskSyncStats.PHASE_SYNC_CONTENT);
+        // the local notes and the remote ones matching no local note, which
+        // are added at the end
+        int done = 0;
+        int total = mGTaskHashMap.size();
+
+        // the notes are written to the database in batches
+        mLocalOps = new ArrayList<ContentProviderOperation>();
 
         // for note existing in database
         try {
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
                     "(type=? AND parent_id<>?)", new String[] {
                             String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, NoteColumns.TYPE + " DESC");
+                    }, null);
             if (c != null) {
+                int matched = 0;
                 while (c.moveToNext()) {
-                    gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-                    node = mGTaskHashMap.get(gid);
-                    if (node != null) {
-                        mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
-                        mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-                        syncType = node.getSyncAction(c);
-                    } else {
-                        if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
-                            // local add
-                            syncType = Node.SYNC_ACTION_ADD_REMOTE;
-                        } else {
-                            // remote delete
-                            syncType = Node.SYNC_ACTION_DEL_LOCAL;
-                        }
+                    if (mGTaskHashMap.containsKey(c.getString(SqlNote.GTASK_ID_COLUMN))) {
+                        matched++;
                     }
-                    doContentSync(syncType, node, c);
+                }
+                total += c.getCount() - matched;
+                c.moveToPosition(-1);
+                while (c.moveToNext()) {
+                    node = mGTaskHashMap.get(c.getString(SqlNote.GTASK_ID_COLUMN));
+                    doContentSync(getLocalSyncAction(node, c), node, c);
+                    publishProgress(GTaskSyncStats.PHASE_SYNC_CONTENT, ++done, total);
                 }
             } else {
                 Log.w(TAG, "failed to query existing note in database");
@@ -332,123 +740,97 @@ public class GTaskManager {
             Map.Entry<String, Node> entry = iter.next();
             node = entry.getValue();
             doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null);
+            publishProgress(GTaskSyncStats.PHASE_SYNC_CONTENT, ++done, total);
         }
 
         // mCancelled can be set by another thread, so we neet to check one by
         // one
+        // apply the remaining local changes
+        if (!mCancelled) {
+            applyLocalBatch();
+        }
+        mLocalOps = null;
+
         // clear local delete table
         if (!mCancelled) {
             if (!DataUtils.batchDeleteNotes(mContentResolver, mLocalDeleteIdMap)) {
                 throw new ActionFailureException("failed to batch-delete local deleted notes");
             }
+            stats.onLocalOperations(mLocalDeleteIdMap.size());
         }
 
         // refresh local sync id
         if (!mCancelled) {
             GTaskClient.getInstance().commitUpdate();
+            stats.endPhase(GTaskSyncStats.PHASE_SYNC_CONTENT);
+            publishProgress(GTaskSyncStats.PHASE_REFRESH_SYNC_ID, 0, 0);
+            stats.beginPhase(GTaskSyncStats.PHASE_REFRESH_SYNC_ID);
             refreshLocalSyncId();
+            stats.endPhase(GTaskSyncStats.PHASE_REFRESH_SYNC_ID);
         }
 
     }
 
+    /**
+     * Sync the trashed items, the system folders and the folders in one pass
+     * over the database, in that order. The notes are read once the folders
+     * from remote have been added, as no row is inserted while a cursor is
+     * open
+     */
     private void syncFolder() throws NetworkFailureException {
         Cursor c = null;
         String gid;
         Node node;
-        int syncType;
 
         if (mCancelled) {
             return;
         }
 
-        // for root folder
         try {
-            c = mContentResolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
-                    Notes.ID_ROOT_FOLDER), SqlNote.PROJECTION_NOTE, null, null, null);
-            if (c != null) {
-                c.moveToNext();
-                gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-                node = mGTaskHashMap.get(gid);
-                if (node != null) {
-                    mGTaskHashMap.remove(gid);
-                    mGidToNid.put(gid, (long) Notes.ID_ROOT_FOLDER);
-                    mNidToGid.put((long) Notes.ID_ROOT_FOLDER, gid);
-                    // for system folder, only update remote name if necessary
-                    if (!node.getName().equals(
-                            GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_DEFAULT))
-                        doContentSync(Node.SYNC_ACTION_UPDATE_REMOTE, node, c);
-                } else {
-                    doContentSync(Node.SYNC_ACTION_ADD_REMOTE, node, c);
-                }
-            } else {
-                Log.w(TAG, "failed to query root folder");
-            }
-        } finally {
-            if (c != null) {
-                c.close();
-                c = null;
-            }
-        }
-
-        // for call-note folder
-        try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE, "(_id=?)",
+            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+                    "(type<>? AND parent_id=?) OR _id IN (?,?) OR (type=? AND parent_id<>?)",
                     new String[] {
-                        String.valueOf(Notes.ID_CALL_RECORD_FOLDER)
-                    }, null);
+                            String.valueOf(Notes.TYPE_SYSTEM),
+                            String.valueOf(Notes.ID_TRASH_FOLER),
+                            String.valueOf(Notes.ID_ROOT_FOLDER),
+                            String.valueOf(Notes.ID_CALL_RECORD_FOLDER),
+                            String.valueOf(Notes.TYPE_FOLDER),
+                            String.valueOf(Notes.ID_TRASH_FOLER)
+                    }, "CASE WHEN parent_id=" + Notes.ID_TRASH_FOLER + " THEN 0 WHEN _id="
+                            + Notes.ID_ROOT_FOLDER + " THEN 1 WHEN _id="
+                            + Notes.ID_CALL_RECORD_FOLDER + " THEN 2 ELSE 3 END");
             if (c != null) {
-                if (c.moveToNext()) {
+                while (c.moveToNext()) {
+                    long id = c.getLong(SqlNote.ID_COLUMN);
                     gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     node = mGTaskHashMap.get(gid);
-                    if (node != null) {
-                        mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, (long) Notes.ID_CALL_RECORD_FOLDER);
-                        mNidToGid.put((long) Notes.ID_CALL_RECORD_FOLDER, gid);
+
+                    if (c.getLong(SqlNote.PARENT_ID_COLUMN) == Notes.ID_TRASH_FOLER) {
+                        // for local deleted item
+                        if (node != null) {
+                            mGTaskHashMap.remove(gid);
+                            doContentSync(Node.SYNC_ACTION_DEL_REMOTE, node, c);
+                        }
+                        mLocalDeleteIdMap.add(id);
+                    } else if (id == Notes.ID_ROOT_FOLDER || id == Notes.ID_CALL_RECORD_FOLDER) {
                         // for system folder, only update remote name if
                         // necessary
-                        if (!node.getName().equals(
-                                GTaskStringUtils.MIUI_FOLDER_PREFFIX
-                                        + GTaskStringUtils.FOLDER_CALL_NOTE))
-                            doContentSync(Node.SYNC_ACTION_UPDATE_REMOTE, node, c);
-                    } else {
-                        doContentSync(Node.SYNC_ACTION_ADD_REMOTE, node, c);
-                    }
-                }
-            } else {
-                Log.w(TAG, "failed to query call note folder");
-            }
-        } finally {
-            if (c != null) {
-                c.close();
-                c = null;
-            }
-        }
-
-        // for local existing folders
-        try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type=? AND parent_id<>?)", new String[] {
-                            String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, NoteColumns.TYPE + " DESC");
-            if (c != null) {
-                while (c.moveToNext()) {
-                    gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-                    node = mGTaskHashMap.get(gid);
-                    if (node != null) {
-                        mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
-                        mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-                        syncType = node.getSyncAction(c);
-                    } else {
-                        if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
-                            // local add
-                            syncType = Node.SYNC_ACTION_ADD_REMOTE;
+                        String name = GTaskStringUtils.MIUI_FOLDER_PREFFIX
+                                + ((id == Notes.ID_ROOT_FOLDER) ? GTaskStringUtils.FOLDER_DEFAULT
+                                        : GTaskStringUtils.FOLDER_CALL_NOTE);
+                        if (node != null) {
+                            mGTaskHashMap.remove(gid);
+                            mGidToNid.put(gid, id);
+                            mNidToGid.put(id, gid);
+                            if (!node.getName().equals(name))
+                                doContentSync(Node.SYNC_ACTION_UPDATE_REMOTE, node, c);
                         } else {
-                            // remote delete
-                            syncType = Node.SYNC_ACTION_DEL_LOCAL;
+                            doContentSync(Node.SYNC_ACTION_ADD_REMOTE, node, c);
                         }
+                    } else {
+                        // for local existing folder
+                        doContentSync(getLocalSyncAction(node, c), node, c);
                     }
-                    doContentSync(syncType, node, c);
                 }
             } else {
                 Log.w(TAG, "failed to query existing folder");
@@ -476,6 +858,83 @@ public class GTaskManager {
             GTaskClient.getInstance().commitUpdate();
     }
 
+    /**
+     * Get the sync action of a local folder or note, the matched remote node
+     * is taken out of mGTaskHashMap and mapped to the row
+     */
+    private int getLocalSyncAction(Node node, Cursor c) {
+        if (node != null) {
+            String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
+            mGTaskHashMap.remove(gid);
+            mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
+            mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
+            int syncAction = node.getSyncAction(c);
+            if ((syncAction == Node.SYNC_ACTION_UPDATE_LOCAL
+                    || syncAction == Node.SYNC_ACTION_UPDATE_REMOTE
+                    || syncAction == Node.SYNC_ACTION_UPDATE_CONFLICT)
+                    && c.getInt(SqlNote.TYPE_COLUMN) == Notes.TYPE_NOTE
+                    && node instanceof Task && isContentUnchanged((Task) node, c)) {
+                return Node.SYNC_ACTION_UPDATE_SYNC_ID;
+            }
+            return syncAction;
+        } else if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
+            // local add
+            return Node.SYNC_ACTION_ADD_REMOTE;
+        } else if (c.getInt(SqlNote.TYPE_COLUMN) == Notes.TYPE_NOTE && isInSkippedList(c)) {
+            // neither side changed
+            return Node.SYNC_ACTION_NONE;
+        }
+        // remote delete
+        return Node.SYNC_ACTION_DEL_LOCAL;
+    }
+
+    /**
+     * Whether the remote task holds what the note holds, by comparing the
+     * content hash of the note with the hash of the task's meta info. The
+     * fields missing from the meta info are taken from the note, as they
+     * would be kept by an update
+     */
+    private boolean isContentUnchanged(Task task, Cursor c) {
+        JSONObject js = task.getLocalJSONFromContent();
+        if (js == null) {
+            return false;
+        }
+
+        Long parentId = (task.getParent() != null) ? mGidToNid.get(task.getParent().getGid())
+                : null;
+        if (parentId == null) {
+            return false;
+        }
+
+        JSONObject note = js.optJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        JSONArray dataArray = js.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+        if (note == null || dataArray == null) {
+            return false;
+        }
+
+        long dataHashes = 0;
+        for (int i = 0; i < dataArray.length(); i++) {
+            JSONObject data = dataArray.optJSONObject(i);
+            if (data == null) {
+                return false;
+            }
+            dataHashes += ContentHashUtils.hashData(
+                    data.optString(DataColumns.MIME_TYPE, DataConstants.NOTE),
+                    data.optString(DataColumns.CONTENT, ""),
+                    data.optLong(DataColumns.DATA1, 0),
+                    data.optString(DataColumns.DATA3, ""));
+        }
+
+        long hash = ContentHashUtils.hashNote(
+                note.optLong(NoteColumns.ALERTED_DATE, c.getLong(SqlNote.ALERTED_DATE_COLUMN)),
+                note.optInt(NoteColumns.BG_COLOR_ID, c.getInt(SqlNote.BG_COLOR_ID_COLUMN)),
+                parentId.longValue(), Notes.TYPE_NOTE,
+                note.optInt(NoteColumns.WIDGET_ID, c.getInt(SqlNote.WIDGET_ID_COLUMN)),
+                note.optInt(NoteColumns.WIDGET_TYPE, c.getInt(SqlNote.WIDGET_TYPE_COLUMN)),
+                dataHashes);
+        return hash == c.getLong(SqlNote.CONTENT_HASH_COLUMN);
+    }
+
     private void doContentSync(int syncType, Node node, Cursor c) throws NetworkFailureException {
         if (mCancelled) {
             return;
@@ -514,6 +973,9 @@ public class GTaskManager {
                 // right now just use local update simply
                 updateRemoteNode(node, c);
                 break;
+            case Node.SYNC_ACTION_UPDATE_SYNC_ID:
+                updateLocalSyncId(node, c);
+                break;
             case Node.SYNC_ACTION_NONE:
                 break;
             case Node.SYNC_ACTION_ERROR:
@@ -548,9 +1010,11 @@ public class GTaskManager {
                     JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
                     if (note.has(NoteColumns.ID)) {
                         long id = note.getLong(NoteColumns.ID);
-                        if (DataUtils.existInNoteDatabase(mContentResolver, id)) {
+                        if (isNoteIdTaken(id)) {
                             // the id is not available, have to create a new one
                             note.remove(NoteColumns.ID);
+                        } else {
+                            onNoteIdTaken(id);
                         }
                     }
                 }
@@ -561,10 +1025,12 @@ public class GTaskManager {
                         JSONObject data = dataArray.getJSONObject(i);
                         if (data.has(DataColumns.ID)) {
                             long dataId = data.getLong(DataColumns.ID);
-                            if (DataUtils.existInDataDatabase(mContentResolver, dataId)) {
+                            if (isDataIdTaken(dataId)) {
                                 // the data id is not available, have to create
                                 // a new one
                                 data.remove(DataColumns.ID);
+                            } else {
+                                onDataIdTaken(dataId);
                             }
                         }
                     }
@@ -586,14 +1052,8 @@ public class GTaskManager {
 
         // create the local node
         sqlNote.setGtaskId(node.getGid());
-        sqlNote.commit(false);
-
-        // update gid-nid mapping
-        mGidToNid.put(node.getGid(), sqlNote.getId());
-        mNidToGid.put(sqlNote.getId(), node.getGid());
-
-        // update meta
-        updateRemoteMeta(node.getGid(), sqlNote);
+        sqlNote.setSyncId(node.getLastModified());
+        commitLocalNode(node, sqlNote, false);
     }
 
     private void updateLocalNode(Node node, Cursor c) throws NetworkFailureException {
@@ -613,18 +1073,168 @@ public class GTaskManager {
             throw new ActionFailureException("cannot update local node");
         }
         sqlNote.setParentId(parentId.longValue());
-        sqlNote.commit(true);
+        sqlNote.setSyncId(node.getLastModified());
+        commitLocalNode(node, sqlNote, true);
+    }
+
+    /**
+     * Mark the unchanged note as synced without sending or loading its content.
+     * Like a local commit it is skipped if the note is edited meanwhile
+     */
+    private void updateLocalSyncId(Node node, Cursor c) throws NetworkFailureException {
+        if (mCancelled) {
+            return;
+        }
+
+        ContentProviderOperation op = ContentProviderOperation.newUpdate(Notes.CONTENT_NOTE_URI)
+                .withValue(NoteColumns.LOCAL_MODIFIED, 0)
+                .withValue(NoteColumns.SYNC_ID, node.getLastModified())
+                .withSelection("(" + NoteColumns.ID + "=?) AND (" + NoteColumns.VERSION + "<=?)",
+                        new String[] {
+                                String.valueOf(c.getLong(SqlNote.ID_COLUMN)),
+                                String.valueOf(c.getLong(SqlNote.VERSION_COLUMN) + 1)
+                        }).build();
+        if (mLocalOps == null) {
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+            ops.add(op);
+            try {
+                mContentResolver.applyBatch(Notes.AUTHORITY, ops);
+            } catch (RemoteException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                throw new ActionFailureException("failed to update sync id");
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                throw new ActionFailureException("failed to update sync id");
+            }
+            GTaskSyncStats.getLast().onDirectOperations(1);
+            return;
+        }
+
+        mLocalOps.add(op);
+        if (mLocalOps.size() >= LOCAL_BATCH_SIZE) {
+            applyLocalBatch();
+        }
+    }
 
-        // update meta info
+    /**
+     * Commit the note at once while syncing folders, otherwise add it to the
+     * local batch
+     */
+    private void commitLocalNode(Node node, SqlNote sqlNote, boolean validateVersion)
+            throws NetworkFailureException {
+        if (mLocalOps == null) {
+            GTaskSyncStats.getLast().onDirectOperations(sqlNote.commit(validateVersion));
+            onNoteIdTaken(sqlNote.getId());
+            onLocalNodeCommitted(node, sqlNote);
+            return;
+        }
+
+        if (sqlNote.commit(validateVersion, mLocalOps)) {
+            mLocalBatchNewIds = true;
+        }
+        mPendingSqlNotes.add(sqlNote);
+        mPendingNodes.add(node);
+        if (mLocalOps.size() >= LOCAL_BATCH_SIZE) {
+            applyLocalBatch();
+        }
+    }
+
+    private void onLocalNodeCommitted(Node node, SqlNote sqlNote) throws NetworkFailureException {
+        // update gid-nid mapping
+        mGidToNid.put(node.getGid(), sqlNote.getId());
+        mNidToGid.put(sqlNote.getId(), node.getGid());
+
+        // update meta
         updateRemoteMeta(node.getGid(), sqlNote);
     }
 
+    private void applyLocalBatch() throws NetworkFailureException {
+        if (mLocalOps == null || mLocalOps.isEmpty()) {
+            return;
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = mContentResolver.applyBatch(Notes.AUTHORITY, mLocalOps);
+        } catch (RemoteException e) {
+            Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            throw new ActionFailureException("failed to apply local changes");
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            throw new ActionFailureException("failed to apply local changes");
+        }
+        GTaskSyncStats.getLast().onLocalOperations(mLocalOps.size());
+
+        // the inserted rows take their ids, whether given or new
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].uri == null) {
+                continue;
+            }
+            Uri uri = mLocalOps.get(i).getUri();
+            if (Notes.CONTENT_NOTE_URI.equals(uri)) {
+                onNoteIdTaken(ContentUris.parseId(results[i].uri));
+            } else if (Notes.CONTENT_DATA_URI.equals(uri)) {
+                onDataIdTaken(ContentUris.parseId(results[i].uri));
+            }
+        }
+        mLocalBatchNewIds = false;
+
+        for (int i = 0; i < mPendingSqlNotes.size(); i++) {
+            SqlNote sqlNote = mPendingSqlNotes.get(i);
+            sqlNote.onBatchApplied(results);
+            onLocalNodeCommitted(mPendingNodes.get(i), sqlNote);
+        }
+        mLocalOps.clear();
+        mPendingSqlNotes.clear();
+        mPendingNodes.clear();
+    }
+
+    private boolean isNoteIdTaken(long id) {
+        if (mNoteIds == null) {
+            mNoteIds = DataUtils.getAllNoteIds(mContentResolver);
+            mMaxNoteId = getMaxId(mNoteIds);
+        }
+        // a row inserted with a new id in the pending batch may take any id
+        // above the known ones
+        return mNoteIds.contains(id) || (mLocalBatchNewIds && id > mMaxNoteId);
+    }
+
+    private boolean isDataIdTaken(long id) {
+        if (mDataIds == null) {
+            mDataIds = DataUtils.getAllDataIds(mContentResolver);
+            mMaxDataId = getMaxId(mDataIds);
+        }
+        return mDataIds.contains(id) || (mLocalBatchNewIds && id > mMaxDataId);
+    }
+
+    private void onNoteIdTaken(long id) {
+        if (mNoteIds != null) {
+            mNoteIds.add(id);
+            mMaxNoteId = Math.max(mMaxNoteId, id);
+        }
+    }
+
+    private void onDataIdTaken(long id) {
+        if (mDataIds != null) {
+            mDataIds.add(id);
+            mMaxDataId = Math.max(mMaxDataId, id);
+        }
+    }
+
+    private static long getMaxId(HashSet<Long> ids) {
+        long max = 0;
+        for (Long id : ids) {
+            max = Math.max(max, id);
+        }
+        return max;
+    }
+
     private void addRemoteNode(Node node, Cursor c) throws NetworkFailureException {
         if (mCancelled) {
             return;
         }
 
-        SqlNote sqlNote = new SqlNote(mContext, c);
+        final SqlNote sqlNote = new SqlNote(mContext, c);
         Node n;
 
         // update remotely
@@ -638,12 +1248,17 @@ public class GTaskManager {
                 throw new ActionFailureException("cannot add remote task");
             }
             mGTaskListHashMap.get(parentGid).addChildTask(task);
-
-            GTaskClient.getInstance().createTask(task);
-            n = (Node) task;
-
-            // add meta
-            updateRemoteMeta(task.getGid(), sqlNote);
+            mDirtyListGids.add(parentGid);
+
+            // the task is created with the batch, its gid is known then
+            GTaskClient.getInstance().createTask(task, new GTaskClient.CreateHandler() {
+                public void onCreated(Node node) throws NetworkFailureException {
+                    // add meta
+                    updateRemoteMeta(node.getGid(), sqlNote);
+                    onRemoteNodeAdded(node, sqlNote);
+                }
+            });
+            return;
         } else {
             TaskList tasklist = null;
 
@@ -680,12 +1295,16 @@ public class GTaskManager {
             }
             n = (Node) tasklist;
         }
+        onRemoteNodeAdded(n, sqlNote);
+    }
 
+    private void onRemoteNodeAdded(Node n, SqlNote sqlNote) {
         // update local note
         sqlNote.setGtaskId(n.getGid());
-        sqlNote.commit(false);
+        GTaskSyncStats stats = GTaskSyncStats.getLast();
+        stats.onDirectOperations(sqlNote.commit(false));
         sqlNote.resetLocalModified();
-        sqlNote.commit(true);
+        stats.onDirectOperations(sqlNote.commit(true));
 
         // gid-id mapping
         mGidToNid.put(n.getGid(), sqlNote.getId());
@@ -702,6 +1321,9 @@ public class GTaskManager {
         // update remotely
         node.setContentByLocalJSON(sqlNote.getContent());
         GTaskClient.getInstance().addUpdateNode(node);
+        if (node instanceof Task) {
+            mDirtyListGids.add(((Task) node).getParent().getGid());
+        }
 
         // update meta
         updateRemoteMeta(node.getGid(), sqlNote);
@@ -719,6 +1341,7 @@ public class GTaskManager {
             TaskList curParentList = mGTaskListHashMap.get(curParentGid);
 
             if (preParentList != curParentList) {
+                mDirtyListGids.add(curParentGid);
                 preParentList.removeChildTask(task);
                 curParentList.addChildTask(task);
                 GTaskClient.getInstance().moveTask(task, preParentList, curParentList);
@@ -727,7 +1350,7 @@ public class GTaskManager {
 
         // clear local modified flag
         sqlNote.resetLocalModified();
-        sqlNote.commit(true);
+        GTaskSyncStats.getLast().onDirectOperations(sqlNote.commit(true));
     }
 
     private void updateRemoteMeta(String gid, SqlNote sqlNote) throws NetworkFailureException {
@@ -741,7 +1364,7 @@ public class GTaskManager {
                 metaData.setMeta(gid, sqlNote.getContent());
                 mMetaList.addChildTask(metaData);
                 mMetaHashMap.put(gid, metaData);
-                GTaskClient.getInstance().createTask(metaData);
+                GTaskClient.getInstance().createTask(metaData, null);
             }
         }
     }
@@ -751,28 +1374,37 @@ public class GTaskManager {
             return;
         }
 
-        // get the latest gtask list
+        // get the latest gtask list, only the lists written by this sync have
+        // new last_modified for their tasks
         mGTaskHashMap.clear();
         mGTaskListHashMap.clear();
         mMetaHashMap.clear();
-        initGTaskList();
+        mSkippedListGids.clear();
+        initGTaskList(true);
 
+        // the changed sync ids are written in one batch
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
         Cursor c = null;
         try {
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
                     "(type<>? AND parent_id<>?)", new String[] {
                             String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, NoteColumns.TYPE + " DESC");
+                    }, null);
             if (c != null) {
                 while (c.moveToNext()) {
                     String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     Node node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
-                        ContentValues values = new ContentValues();
-                        values.put(NoteColumns.SYNC_ID, node.getLastModified());
-                        mContentResolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
-                                c.getLong(SqlNote.ID_COLUMN)), values, null, null);
+                        if (c.getLong(SqlNote.SYNC_ID_COLUMN) != node.getLastModified()) {
+                            ops.add(ContentProviderOperation.newUpdate(
+                                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
+                                            c.getLong(SqlNote.ID_COLUMN))).withValue(
+                                    NoteColumns.SYNC_ID, node.getLastModified()).build());
+                        }
+                    } else if (isInSkippedList(c)) {
+                        // sync id has been set when the note was synced
+                        continue;
                     } else {
                         Log.e(TAG, "something is missed");
                         throw new ActionFailureException(
@@ -788,6 +1420,19 @@ public class GTaskManager {
                 c = null;
             }
         }
+
+        if (ops.size() > 0) {
+            try {
+                mContentResolver.applyBatch(Notes.AUTHORITY, ops);
+                GTaskSyncStats.getLast().onLocalOperations(ops.size());
+            } catch (RemoteException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                throw new ActionFailureException("failed to refresh local sync id");
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+                throw new ActionFailureException("failed to refresh local sync id");
+            }
+        }
     }
 
     public String getSyncAccount() {
@@ -796,5 +1441,39 @@ public class GTaskManager {
 
     public void cancelSync() {
         mCancelled = true;
+        // do not wait for the requests in flight to time out
+        GTaskClient.getInstance().abort();
+    }
+
+    /**
+     * Publish the progress of the phase, the progress within a phase is
+     * throttled
+     */
+    private void publishProgress(String phase, int done, int total) {
+        if (mSyncTask == null || phase == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!phase.equals(mProgressPhase)) {
+            mProgressPhase = phase;
+            mPhaseStartTime = now;
+        } else if (done < total && now - mLastProgressTime < PROGRESS_INTERVAL) {
+            return;
+        }
+        mLastProgressTime = now;
+
+        String message;
+        if (GTaskSyncStats.PHASE_LOGIN.equals(phase)) {
+            message = mContext.getString(R.string.sync_progress_login, NotesPreferenceActivity
+                    .getSyncAccountName(mContext));
+        } else if (GTaskSyncStats.PHASE_INIT_LIST.equals(phase)) {
+            message = mContext.getString(R.string.sync_progress_init_list);
+        } else {
+            message = mContext.getString(R.string.sync_progress_syncing);
+        }
+        long elapsed = now - mPhaseStartTime;
+        float throughput = elapsed > 0 ? done * 1000f / elapsed : 0;
+        mSyncTask.publishProgress(new GTaskSyncProgress(phase, message, done, total, throughput));
     }
 }
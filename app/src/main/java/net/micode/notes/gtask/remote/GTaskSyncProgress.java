@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+/**
+ * A progress event of sync. The phase is one of the GTaskSyncStats phases,
+ * the total is 0 while it is unknown
+ */
+public class GTaskSyncProgress {
+    private final String mPhase;
+
+    private final String mMessage;
+
+    private final int mDone;
+
+    private final int mTotal;
+
+    private final float mThroughput;
+
+    public GTaskSyncProgress(String phase, String message, int done, int total, float throughput) {
+        mPhase = phase;
+        mMessage = message;
+        mDone = done;
+        mTotal = total;
+        mThroughput = throughput;
+    }
+
+    public String getPhase() {
+        return mPhase;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public int getDone() {
+        return mDone;
+    }
+
+    public int getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Items done per second since the phase started
+     */
+    public float getThroughput() {
+        return mThroughput;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.ui.NotesPreferenceActivity;
+
+/**
+ * Starts sync in the background, soon after enough notes are changed locally,
+ * a while after any note is changed, or once the last sync is too old. A sync
+ * failed for network is retried with an exponential backoff
+ */
+public class GTaskSyncScheduler {
+    private static final String TAG = GTaskSyncScheduler.class.getSimpleName();
+
+    private static final String PREFERENCE_NAME = "gtask_sync_schedule";
+
+    private static final String PREFERENCE_BACKOFF = "backoff";
+
+    private static final String PREFERENCE_RETRY_TIME = "retry_time";
+
+    // notes saved since last sync, an estimate kept so saving needs no query
+    private static final String PREFERENCE_LOCAL_CHANGES = "local_changes";
+
+    // how often the schedule is checked
+    private static final long CHECK_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+    // sync at once when so many notes are changed
+    private static final int CHANGE_THRESHOLD = 20;
+
+    // changed notes wait at most this long for sync
+    private static final long CHANGE_DELAY = AlarmManager.INTERVAL_HALF_HOUR;
+
+    // remote changes wait at most this long for sync
+    private static final long SYNC_INTERVAL = AlarmManager.INTERVAL_HOUR * 6;
+
+    private static final long MIN_BACKOFF = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+    private static final long MAX_BACKOFF = AlarmManager.INTERVAL_HALF_DAY;
+
+    /**
+     * Start checking the schedule periodically. It is called whenever the app
+     * starts, an alarm already set is kept as it is
+     */
+    public static void start(Context context) {
+        if (NotesPreferenceActivity.getSyncAccountName(context).trim().length() == 0) {
+            return;
+        }
+        // the intent exists as long as the alarm is set, until stop() or a
+        // reboot
+        if (PendingIntent.getService(context, 0, getSyncIntent(context),
+                PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock
+                .elapsedRealtime()
+                + CHECK_INTERVAL, CHECK_INTERVAL, getCheckIntent(context));
+    }
+
+    public static void stop(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent checkIntent = getCheckIntent(context);
+        alarmManager.cancel(checkIntent);
+        checkIntent.cancel();
+        context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+    }
+
+    /**
+     * Called on the UI thread once a note is saved, sync is started if the
+     * changes are many enough. The saves are counted instead of querying the
+     * changed notes, the service checks the count again before syncing
+     */
+    public static void onLocalChange(Context context) {
+        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
+                Context.MODE_PRIVATE);
+        int changes = settings.getInt(PREFERENCE_LOCAL_CHANGES, 0) + 1;
+        settings.edit().putInt(PREFERENCE_LOCAL_CHANGES, changes).apply();
+        if (canSync(context, settings) && isSyncDue(context, changes)) {
+            context.startService(getSyncIntent(context));
+        }
+    }
+
+    /**
+     * Whether a scheduled sync may start now, it does not query the database
+     */
+    public static boolean canSync(Context context) {
+        return canSync(context, context.getSharedPreferences(PREFERENCE_NAME,
+                Context.MODE_PRIVATE));
+    }
+
+    /**
+     * Whether a scheduled sync is needed now. It counts the changed notes, so
+     * call it off the UI thread
+     */
+    public static boolean isSyncDue(Context context) {
+        // correct the estimate, a note saved many times is counted once
+        int changes = getLocalChangeCount(context);
+        context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(PREFERENCE_LOCAL_CHANGES, changes).apply();
+        return isSyncDue(context, changes);
+    }
+
+    private static boolean canSync(Context context, SharedPreferences settings) {
+        if (NotesPreferenceActivity.getSyncAccountName(context).trim().length() == 0
+                || GTaskSyncService.isSyncing()) {
+            return false;
+        }
+        return System.currentTimeMillis() >= settings.getLong(PREFERENCE_RETRY_TIME, 0);
+    }
+
+    private static boolean isSyncDue(Context context, int changes) {
+        long elapsed = System.currentTimeMillis()
+                - NotesPreferenceActivity.getLastSyncTime(context);
+        if (elapsed >= SYNC_INTERVAL) {
+            return true;
+        }
+        return changes >= CHANGE_THRESHOLD || (changes > 0 && elapsed >= CHANGE_DELAY);
+    }
+
+    public static void onSyncFinished(Context context, int result) {
+        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = settings.edit();
+        if (result == GTaskManager.STATE_SUCCESS) {
+            editor.remove(PREFERENCE_BACKOFF);
+            editor.remove(PREFERENCE_RETRY_TIME);
+            editor.remove(PREFERENCE_LOCAL_CHANGES);
+        } else if (result == GTaskManager.STATE_NETWORK_ERROR) {
+            long backoff = Math.min(Math.max(settings.getLong(PREFERENCE_BACKOFF, 0) * 2,
+                    MIN_BACKOFF), MAX_BACKOFF);
+            Log.d(TAG, "sync failed for network, retry in " + backoff + "ms");
+            editor.putLong(PREFERENCE_BACKOFF, backoff);
+            editor.putLong(PREFERENCE_RETRY_TIME, System.currentTimeMillis() + backoff);
+        }
+        editor.commit();
+    }
+
+    private static int getLocalChangeCount(Context context) {
+        Cursor c = context.getContentResolver().query(Notes.CONTENT_NOTE_URI, new String[] {
+            "COUNT(*)"
+        }, NoteColumns.LOCAL_MODIFIED + "=1 AND " + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM,
+                null, null);
+        int count = 0;
+        if (c != null) {
+            if (c.moveToFirst()) {
+                count = c.getInt(0);
+            }
+            c.close();
+        }
+        return count;
+    }
+
+    private static Intent getSyncIntent(Context context) {
+        Intent intent = new Intent(context, GTaskSyncService.class);
+        intent.putExtra(GTaskSyncService.ACTION_STRING_NAME,
+                GTaskSyncService.ACTION_SCHEDULED_SYNC);
+        return intent;
+    }
+
+    private static PendingIntent getCheckIntent(Context context) {
+        return PendingIntent.getService(context, 0, getSyncIntent(context),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
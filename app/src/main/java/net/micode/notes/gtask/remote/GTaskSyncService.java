@@ -32,25 +32,36 @@ public class GTaskSyncService extends Service {
 
     public final static int ACTION_INVALID = 2;
 
+    public final static int ACTION_SCHEDULED_SYNC = 3;
+
     public final static String GTASK_SERVICE_BROADCAST_NAME = "net.micode.notes.gtask.remote.gtask_sync_service";
 
     public final static String GTASK_SERVICE_BROADCAST_IS_SYNCING = "isSyncing";
 
     public final static String GTASK_SERVICE_BROADCAST_PROGRESS_MSG = "progressMsg";
 
-    private static GTaskASyncTask mSyncTask = null;
+    public final static String GTASK_SERVICE_BROADCAST_PHASE = "phase";
+
+    public final static String GTASK_SERVICE_BROADCAST_DONE = "done";
+
+    public final static String GTASK_SERVICE_BROADCAST_TOTAL = "total";
+
+    public final static String GTASK_SERVICE_BROADCAST_THROUGHPUT = "throughput";
+
+    private static GTaskSyncTask mSyncTask = null;
 
     private static String mSyncProgress = "";
 
-    private void startSync() {
+    private void startSync(boolean background) {
         if (mSyncTask == null) {
-            mSyncTask = new GTaskASyncTask(this, new GTaskASyncTask.OnCompleteListener() {
+            mSyncTask = new GTaskSyncTask(this, new GTaskSyncTask.OnCompleteListener() {
                 public void onComplete() {
                     mSyncTask = null;
                     sendBroadcast("");
                     stopSelf();
                 }
             });
+            mSyncTask.setBackground(background);
             sendBroadcast("");
             mSyncTask.execute();
         }
@@ -73,11 +84,23 @@ public class GTaskSyncService extends Service {
         if (bundle != null && bundle.containsKey(ACTION_STRING_NAME)) {
             switch (bundle.getInt(ACTION_STRING_NAME, ACTION_INVALID)) {
                 case ACTION_START_SYNC:
-                    startSync();
+                    startSync(false);
                     break;
                 case ACTION_CANCEL_SYNC:
                     cancelSync();
                     break;
+                case ACTION_SCHEDULED_SYNC:
+                    // a sync in progress covers the request, the sync task
+                    // checks whether the sync is due before starting it
+                    if (mSyncTask == null) {
+                        if (GTaskSyncScheduler.canSync(this)) {
+                            GTaskManager.getInstance().setActivityContext(null);
+                            startSync(true);
+                        } else {
+                            stopSelf(startId);
+                        }
+                    }
+                    break;
                 default:
                     break;
             }
@@ -99,10 +122,24 @@ public class GTaskSyncService extends Service {
 
     public void sendBroadcast(String msg) {
         mSyncProgress = msg;
+        sendBroadcast(createBroadcastIntent(msg));
+    }
+
+    public void sendBroadcast(GTaskSyncProgress progress) {
+        mSyncProgress = progress.getMessage();
+        Intent intent = createBroadcastIntent(progress.getMessage());
+        intent.putExtra(GTASK_SERVICE_BROADCAST_PHASE, progress.getPhase());
+        intent.putExtra(GTASK_SERVICE_BROADCAST_DONE, progress.getDone());
+        intent.putExtra(GTASK_SERVICE_BROADCAST_TOTAL, progress.getTotal());
+        intent.putExtra(GTASK_SERVICE_BROADCAST_THROUGHPUT, progress.getThroughput());
+        sendBroadcast(intent);
+    }
+
+    private Intent createBroadcastIntent(String msg) {
         Intent intent = new Intent(GTASK_SERVICE_BROADCAST_NAME);
         intent.putExtra(GTASK_SERVICE_BROADCAST_IS_SYNCING, mSyncTask != null);
         intent.putExtra(GTASK_SERVICE_BROADCAST_PROGRESS_MSG, msg);
-        sendBroadcast(intent);
+        return intent;
     }
 
     public static void startSync(Activity activity) {
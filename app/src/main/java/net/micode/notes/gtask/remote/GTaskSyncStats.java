@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings and counters of one sync. The stats of the running sync, or of the
+ * last one, are kept by {@link #getLast()}; the counters may be updated from
+ * the list fetching threads
+ */
+public class GTaskSyncStats {
+    private static final String TAG = GTaskSyncStats.class.getSimpleName();
+
+    private static final String REPORT_FILE_NAME = "gtask_sync_report.txt";
+
+    public static final String PHASE_LOGIN = "login";
+
+    public static final String PHASE_INIT_LIST = "init_list";
+
+    public static final String PHASE_SYNC_FOLDER = "sync_folder";
+
+    public static final String PHASE_SYNC_CONTENT = "sync_content";
+
+    public static final String PHASE_REFRESH_SYNC_ID = "refresh_sync_id";
+
+    private static GTaskSyncStats sLast = new GTaskSyncStats();
+
+    private long mStartTime;
+
+    private long mStartElapsed;
+
+    private long mDuration;
+
+    private int mResult = -1;
+
+    private final LinkedHashMap<String, Long> mPhaseStart = new LinkedHashMap<String, Long>();
+
+    private final LinkedHashMap<String, Long> mPhaseTime = new LinkedHashMap<String, Long>();
+
+    private int mRequestCount;
+
+    private long mBytesOut;
+
+    private long mBytesIn;
+
+    private int mBatchCount;
+
+    private int mBatchActions;
+
+    private int mMaxBatchSize;
+
+    private int mLocalBatchCount;
+
+    private int mLocalOperations;
+
+    private int mDirectOperations;
+
+    private GTaskSyncStats() {
+        mStartTime = System.currentTimeMillis();
+        mStartElapsed = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Start the stats of a new sync, they replace the last ones
+     */
+    public static synchronized GTaskSyncStats begin() {
+        sLast = new GTaskSyncStats();
+        return sLast;
+    }
+
+    public static synchronized GTaskSyncStats getLast() {
+        return sLast;
+    }
+
+    public synchronized void beginPhase(String phase) {
+        mPhaseStart.put(phase, SystemClock.elapsedRealtime());
+    }
+
+    public synchronized void endPhase(String phase) {
+        Long start = mPhaseStart.remove(phase);
+        if (start == null) {
+            return;
+        }
+        // a phase run more than once adds up
+        long time = SystemClock.elapsedRealtime() - start;
+        Long total = mPhaseTime.get(phase);
+        mPhaseTime.put(phase, total == null ? time : total + time);
+    }
+
+    public synchronized void onRequest(long bytesOut) {
+        mRequestCount++;
+        mBytesOut += bytesOut;
+    }
+
+    public synchronized void onResponseBytes(long bytesIn) {
+        mBytesIn += bytesIn;
+    }
+
+    public synchronized void onBatchPosted(int actions) {
+        mBatchCount++;
+        mBatchActions += actions;
+        mMaxBatchSize = Math.max(mMaxBatchSize, actions);
+    }
+
+    public synchronized void onLocalOperations(int operations) {
+        if (operations <= 0) {
+            return;
+        }
+        mLocalBatchCount++;
+        mLocalOperations += operations;
+    }
+
+    /**
+     * Provider operations run one by one, outside of the local batches
+     */
+    public synchronized void onDirectOperations(int operations) {
+        mDirectOperations += operations;
+    }
+
+    public synchronized void finish(int result) {
+        mResult = result;
+        mDuration = SystemClock.elapsedRealtime() - mStartElapsed;
+    }
+
+    public synchronized long getPhaseTime(String phase) {
+        Long time = mPhaseTime.get(phase);
+        return time == null ? 0 : time;
+    }
+
+    public synchronized long getDuration() {
+        return mDuration;
+    }
+
+    public synchronized int getResult() {
+        return mResult;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized long getBytesOut() {
+        return mBytesOut;
+    }
+
+    public synchronized long getBytesIn() {
+        return mBytesIn;
+    }
+
+    public synchronized int getBatchCount() {
+        return mBatchCount;
+    }
+
+    public synchronized int getBatchActions() {
+        return mBatchActions;
+    }
+
+    public synchronized int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public synchronized int getLocalBatchCount() {
+        return mLocalBatchCount;
+    }
+
+    public synchronized int getLocalOperations() {
+        return mLocalOperations;
+    }
+
+    public synchronized int getDirectOperations() {
+        return mDirectOperations;
+    }
+
+    public synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sync started: ")
+                .append(DateFormat.getDateTimeInstance().format(new Date(mStartTime)))
+                .append('\n');
+        sb.append("result: ").append(mResult).append('\n');
+        sb.append("duration: ").append(mDuration).append("ms\n");
+        for (Map.Entry<String, Long> entry : mPhaseTime.entrySet()) {
+            sb.append("phase ").append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append("ms\n");
+        }
+        sb.append("http requests: ").append(mRequestCount).append('\n');
+        sb.append("bytes out: ").append(mBytesOut).append('\n');
+        sb.append("bytes in: ").append(mBytesIn).append('\n');
+        sb.append("action batches: ").append(mBatchCount).append(", actions: ")
+                .append(mBatchActions).append(", largest batch: ").append(mMaxBatchSize)
+                .append('\n');
+        sb.append("local batches: ").append(mLocalBatchCount).append(", operations: ")
+                .append(mLocalOperations).append('\n');
+        sb.append("direct operations: ").append(mDirectOperations).append('\n');
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getReport();
+    }
+
+    /**
+     * Write the report to the app's external files directory, where it can
+     * be pulled for debugging
+     *
+     * @return the report file, or null if it can not be written
+     */
+    public File exportReport(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.w(TAG, "external storage is not available for the sync report");
+            return null;
+        }
+        File file = new File(dir, REPORT_FILE_NAME);
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new FileOutputStream(file));
+            ps.print(getReport());
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write the sync report: " + e.toString());
+            return null;
+        } finally {
+            if (ps != null) {
+                ps.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+
+import net.micode.notes.R;
+import net.micode.notes.ui.NotesListActivity;
+import net.micode.notes.ui.NotesPreferenceActivity;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs sync on its own background thread, so a long sync never holds up the
+ * AsyncTask queue shared by the rest of the app. Progress and the result are
+ * delivered on the main thread
+ */
+public class GTaskSyncTask {
+
+    private static int GTASK_SYNC_NOTIFICATION_ID = 5234235;
+
+    // a background sync gives up sooner on a bad network, the scheduler
+    // retries it later
+    private static final int BACKGROUND_CONNECT_TIMEOUT = 5000;
+
+    private static final int BACKGROUND_READ_TIMEOUT = 10000;
+
+    // the connections of a background sync are not kept for the next one
+    private static final int BACKGROUND_IDLE_TIMEOUT = 10000;
+
+    // a background sync found not due when checked on the sync thread
+    private static final int RESULT_NOT_DUE = -1;
+
+    private static final ExecutorService sExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "gtask-sync");
+                }
+            });
+
+    public interface OnCompleteListener {
+        void onComplete();
+    }
+
+    private Context mContext;
+
+    private NotificationManager mNotifiManager;
+
+    private GTaskManager mTaskManager;
+
+    private OnCompleteListener mOnCompleteListener;
+
+    private Handler mHandler;
+
+    private boolean mBackground;
+
+    // phase of the progress shown by the notification
+    private String mNotifiedPhase;
+
+    public GTaskSyncTask(Context context, OnCompleteListener listener) {
+        mContext = context;
+        mOnCompleteListener = listener;
+        mNotifiManager = (NotificationManager) mContext
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+        mTaskManager = GTaskManager.getInstance();
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * A background sync is not started by the user, it posts no notification
+     * and has shorter network timeouts. It only runs if the scheduler finds
+     * it due
+     */
+    public void setBackground(boolean background) {
+        mBackground = background;
+    }
+
+    public void execute() {
+        sExecutor.execute(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final int result;
+                if (mBackground && !GTaskSyncScheduler.isSyncDue(mContext)) {
+                    result = RESULT_NOT_DUE;
+                } else {
+                    setTimeouts();
+                    result = mTaskManager.sync(mContext, GTaskSyncTask.this);
+                }
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        onPostExecute(result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void setTimeouts() {
+        GTaskTransport transport = GTaskClient.getInstance().getTransport();
+        if (!(transport instanceof HttpGTaskTransport)) {
+            return;
+        }
+        if (mBackground) {
+            ((HttpGTaskTransport) transport).setTimeouts(BACKGROUND_CONNECT_TIMEOUT,
+                    BACKGROUND_READ_TIMEOUT, BACKGROUND_IDLE_TIMEOUT);
+        } else {
+            ((HttpGTaskTransport) transport).resetTimeouts();
+        }
+    }
+
+    /**
+     * Stop the sync, the requests in flight are aborted
+     */
+    public void cancelSync() {
+        mTaskManager.cancelSync();
+    }
+
+    public void publishProgress(final GTaskSyncProgress progress) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                onProgressUpdate(progress);
+            }
+        });
+    }
+
+    private void showNotification(int tickerId, String content) {
+        if (mBackground) {
+            return;
+        }
+        Notification notification = new Notification(R.drawable.notification, mContext
+                .getString(tickerId), System.currentTimeMillis());
+        notification.defaults = Notification.DEFAULT_LIGHTS;
+        notification.flags = Notification.FLAG_AUTO_CANCEL;
+        PendingIntent pendingIntent;
+        if (tickerId != R.string.ticker_success) {
+            pendingIntent = PendingIntent.getActivity(mContext, 0, new Intent(mContext,
+                    NotesPreferenceActivity.class), 0);
+
+        } else {
+            pendingIntent = PendingIntent.getActivity(mContext, 0, new Intent(mContext,
+                    NotesListActivity.class), 0);
+        }
+//        notification.setLatestEventInfo(mContext, mContext.getString(R.string.app_name), content,
+//                pendingIntent);
+        mNotifiManager.notify(GTASK_SYNC_NOTIFICATION_ID, notification);
+    }
+
+    private void onProgressUpdate(GTaskSyncProgress progress) {
+        // the message of the notification only changes with the phase, the
+        // counts go to the broadcast
+        if (!TextUtils.equals(progress.getPhase(), mNotifiedPhase)) {
+            mNotifiedPhase = progress.getPhase();
+            showNotification(R.string.ticker_syncing, progress.getMessage());
+        }
+        if (mContext instanceof GTaskSyncService) {
+            ((GTaskSyncService) mContext).sendBroadcast(progress);
+        }
+    }
+
+    private void onPostExecute(int result) {
+        if (result != RESULT_NOT_DUE) {
+            GTaskSyncScheduler.onSyncFinished(mContext, result);
+        }
+        if (result == GTaskManager.STATE_SUCCESS) {
+            showNotification(R.string.ticker_success, mContext.getString(
+                    R.string.success_sync_account, mTaskManager.getSyncAccount()));
+            NotesPreferenceActivity.setLastSyncTime(mContext, System.currentTimeMillis());
+        } else if (result == GTaskManager.STATE_NETWORK_ERROR) {
+            showNotification(R.string.ticker_fail, mContext.getString(R.string.error_sync_network));
+        } else if (result == GTaskManager.STATE_INTERNAL_ERROR) {
+            showNotification(R.string.ticker_fail, mContext.getString(R.string.error_sync_internal));
+        } else if (result == GTaskManager.STATE_SYNC_CANCELLED) {
+            showNotification(R.string.ticker_cancel, mContext
+                    .getString(R.string.error_sync_cancelled));
+        }
+        if (mOnCompleteListener != null) {
+            new Thread(new Runnable() {
+
+                public void run() {
+                    mOnCompleteListener.onComplete();
+                }
+            }).start();
+        }
+    }
+}
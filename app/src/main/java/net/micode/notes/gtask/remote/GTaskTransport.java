@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Carries the requests of {@link GTaskClient} to the task server. The
+ * responses are returned decoded, the setup page holds the json object passed
+ * to _setup() and a post returns the json object of the results
+ */
+public interface GTaskTransport {
+    /**
+     * Open a session with the auth token
+     *
+     * @param domain the domain of a hosted account, or null for the
+     *            official url
+     * @return the setup page
+     * @throws IOException if the server can not be reached or refuses the
+     *             token
+     */
+    InputStream login(String domain, String authToken) throws IOException;
+
+    /**
+     * Get the setup page of the logged in session
+     */
+    InputStream getSetupPage() throws IOException;
+
+    /**
+     * Post the json request of an action list
+     */
+    InputStream post(String request) throws IOException;
+
+    /**
+     * Abort the requests in flight, they fail with an IOException. It may be
+     * called from any thread
+     */
+    void abort();
+}
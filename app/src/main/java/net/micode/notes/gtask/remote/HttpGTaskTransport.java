@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.util.Log;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Talks to the Google Tasks server over http, the connections are pooled and
+ * kept alive across requests and logins
+ */
+public class HttpGTaskTransport implements GTaskTransport {
+    private static final String TAG = HttpGTaskTransport.class.getSimpleName();
+
+    private static final String GTASK_URL = "https://mail.google.com/tasks/";
+
+    private static final String GTASK_GET_URL = "https://mail.google.com/tasks/ig";
+
+    private static final String GTASK_POST_URL = "https://mail.google.com/tasks/r/ig";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    private static final int DEFAULT_READ_TIMEOUT = 15000;
+
+    private static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private static final int MAX_CONNECTIONS = 4;
+
+    private DefaultHttpClient mHttpClient;
+
+    private ClientConnectionManager mConnManager;
+
+    private int mConnectTimeout;
+
+    private int mReadTimeout;
+
+    // connections idle for longer are closed instead of reused
+    private volatile int mIdleTimeout;
+
+    private String mGetUrl;
+
+    private String mPostUrl;
+
+    // requests whose response is not closed yet
+    private final HashSet<HttpUriRequest> mRequests = new HashSet<HttpUriRequest>();
+
+    public HttpGTaskTransport() {
+        mHttpClient = null;
+        mConnManager = null;
+        mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        mReadTimeout = DEFAULT_READ_TIMEOUT;
+        mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+        mGetUrl = GTASK_GET_URL;
+        mPostUrl = GTASK_POST_URL;
+    }
+
+    /**
+     * Set the connect, read and idle timeouts in milliseconds, they take effect
+     * from the next request
+     */
+    public synchronized void setTimeouts(int connectTimeout, int readTimeout, int idleTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mIdleTimeout = idleTimeout;
+        if (mHttpClient != null) {
+            HttpConnectionParams.setConnectionTimeout(mHttpClient.getParams(), connectTimeout);
+            HttpConnectionParams.setSoTimeout(mHttpClient.getParams(), readTimeout);
+        }
+    }
+
+    public void resetTimeouts() {
+        setTimeouts(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public InputStream login(String domain, String authToken) throws IOException {
+        if (domain != null) {
+            String url = GTASK_URL + "a/" + domain + "/";
+            mGetUrl = url + "ig";
+            mPostUrl = url + "r/ig";
+        } else {
+            mGetUrl = GTASK_GET_URL;
+            mPostUrl = GTASK_POST_URL;
+        }
+
+        HttpParams httpParameters = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(httpParameters, mConnectTimeout);
+        HttpConnectionParams.setSoTimeout(httpParameters, mReadTimeout);
+        HttpConnectionParams.setStaleCheckingEnabled(httpParameters, false);
+        HttpProtocolParams.setVersion(httpParameters, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(httpParameters, HTTP.UTF_8);
+        ConnManagerParams.setMaxTotalConnections(httpParameters, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(httpParameters, new ConnPerRouteBean(
+                MAX_CONNECTIONS));
+
+        // the connections are kept across logins, only the cookies are new
+        if (mConnManager == null) {
+            SchemeRegistry schemeRegistry = new SchemeRegistry();
+            schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+            mConnManager = new ThreadSafeClientConnManager(httpParameters, schemeRegistry);
+        }
+        mHttpClient = new DefaultHttpClient(mConnManager, httpParameters);
+        BasicCookieStore localBasicCookieStore = new BasicCookieStore();
+        mHttpClient.setCookieStore(localBasicCookieStore);
+        HttpProtocolParams.setUseExpectContinue(mHttpClient.getParams(), false);
+
+        // keep the connection alive as long as the server allows, but no
+        // longer than the idle timeout
+        mHttpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = new DefaultConnectionKeepAliveStrategy().getKeepAliveDuration(
+                        response, context);
+                int idleTimeout = mIdleTimeout;
+                return (duration < 0 || duration > idleTimeout) ? idleTimeout : duration;
+            }
+        });
+
+        HttpGet httpGet = createHttpGet(mGetUrl + "?auth=" + authToken);
+        GTaskSyncStats.getLast().onRequest(0);
+        HttpResponse response = execute(httpGet);
+
+        // get the cookie now
+        List<Cookie> cookies = mHttpClient.getCookieStore().getCookies();
+        boolean hasAuthCookie = false;
+        for (Cookie cookie : cookies) {
+            if (cookie.getName().contains("GTL")) {
+                hasAuthCookie = true;
+            }
+        }
+        if (!hasAuthCookie) {
+            Log.w(TAG, "it seems that there is no auth cookie");
+        }
+        return getResponseStream(httpGet, response.getEntity());
+    }
+
+    public InputStream getSetupPage() throws IOException {
+        HttpGet httpGet = createHttpGet(mGetUrl);
+        GTaskSyncStats.getLast().onRequest(0);
+        HttpResponse response = execute(httpGet);
+        return getResponseStream(httpGet, response.getEntity());
+    }
+
+    public InputStream post(String request) throws IOException {
+        HttpPost httpPost = createHttpPost();
+        StringEntity entity = new StringEntity("r=" + URLEncoder.encode(request, "UTF-8"),
+                "UTF-8");
+        entity.setContentType("application/x-www-form-urlencoded;charset=utf-8");
+        httpPost.setEntity(entity);
+        GTaskSyncStats.getLast().onRequest(entity.getContentLength());
+
+        // execute the post
+        HttpResponse response = execute(httpPost);
+        return getResponseStream(httpPost, response.getEntity());
+    }
+
+    public void abort() {
+        HttpUriRequest[] requests;
+        synchronized (mRequests) {
+            requests = mRequests.toArray(new HttpUriRequest[mRequests.size()]);
+            mRequests.clear();
+        }
+        for (HttpUriRequest request : requests) {
+            request.abort();
+        }
+    }
+
+    /**
+     * The request can be aborted until its response is closed
+     */
+    private HttpResponse execute(HttpUriRequest request) throws IOException {
+        synchronized (mRequests) {
+            mRequests.add(request);
+        }
+        try {
+            return mHttpClient.execute(request);
+        } catch (IOException e) {
+            onRequestClosed(request);
+            throw e;
+        } catch (RuntimeException e) {
+            onRequestClosed(request);
+            throw e;
+        }
+    }
+
+    private void onRequestClosed(HttpUriRequest request) {
+        synchronized (mRequests) {
+            mRequests.remove(request);
+        }
+    }
+
+    private HttpGet createHttpGet(String url) {
+        closeIdleConnections();
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.setHeader("Accept-Encoding", "gzip");
+        return httpGet;
+    }
+
+    private HttpPost createHttpPost() {
+        closeIdleConnections();
+        HttpPost httpPost = new HttpPost(mPostUrl);
+        httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
+        httpPost.setHeader("Accept-Encoding", "gzip");
+        httpPost.setHeader("AT", "1");
+        return httpPost;
+    }
+
+    private void closeIdleConnections() {
+        // stale checking is off, so drop the connections which may have been
+        // closed by the server
+        mConnManager.closeExpiredConnections();
+        mConnManager.closeIdleConnections(mIdleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private InputStream getResponseStream(HttpUriRequest request, HttpEntity entity)
+            throws IOException {
+        String contentEncoding = null;
+        if (entity.getContentEncoding() != null) {
+            contentEncoding = entity.getContentEncoding().getValue();
+            Log.d(TAG, "encoding: " + contentEncoding);
+        }
+
+        // the bytes are counted as they come over the wire
+        InputStream content = new ResponseInputStream(request, entity.getContent());
+        InputStream input = content;
+        if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
+            try {
+                // reads the gzip header already
+                input = new GZIPInputStream(content);
+            } catch (IOException e) {
+                // nobody is going to close the response, release its connection
+                try {
+                    content.close();
+                } catch (IOException closeException) {
+                    Log.w(TAG, "failed to close the response: " + closeException.toString());
+                } finally {
+                    onRequestClosed(request);
+                }
+                throw e;
+            }
+        } else if (contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate")) {
+            Inflater inflater = new Inflater(true);
+            input = new InflaterInputStream(content, inflater);
+        }
+        return input;
+    }
+
+    /**
+     * Counts the bytes of the response and forgets the request once closed
+     */
+    private class ResponseInputStream extends FilterInputStream {
+        private final HttpUriRequest mRequest;
+
+        public ResponseInputStream(HttpUriRequest request, InputStream in) {
+            super(in);
+            mRequest = request;
+        }
+
+        @Override
+        public void close() throws IOException {
+            onRequestClosed(mRequest);
+            super.close();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                GTaskSyncStats.getLast().onResponseBytes(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                GTaskSyncStats.getLast().onResponseBytes(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                GTaskSyncStats.getLast().onResponseBytes(skipped);
+            }
+            return skipped;
+        }
+    }
+}
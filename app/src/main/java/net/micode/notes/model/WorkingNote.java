@@ -29,6 +29,7 @@ import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.tool.ResourceParser.NoteBgResources;
 
 
@@ -197,6 +198,7 @@ public class WorkingNote {
             }
 
             mNote.syncNote(mContext, mNoteId);
+            GTaskSyncScheduler.onLocalChange(mContext);
 
             /**
              * Update widget content if there exist any widget of this note
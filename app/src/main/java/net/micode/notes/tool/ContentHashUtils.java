@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+/**
+ * 64-bit FNV-1a hashes of the content sync carries. The provider keeps them in
+ * the content_hash columns and sync compares them with the hashes of the
+ * remote content, so only the columns written to the meta info are covered
+ */
+public class ContentHashUtils {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static long hashData(String mimeType, String content, long data1, String data3) {
+        long hash = FNV_OFFSET;
+        hash = update(hash, mimeType);
+        hash = update(hash, content);
+        hash = update(hash, data1);
+        hash = update(hash, data3);
+        return hash;
+    }
+
+    /**
+     * @param dataHashes the sum of the hashes of the note's data, so the order
+     *            of the data does not matter
+     */
+    public static long hashNote(long alertedDate, int bgColorId, long parentId, int type,
+            int widgetId, int widgetType, long dataHashes) {
+        long hash = FNV_OFFSET;
+        hash = update(hash, alertedDate);
+        hash = update(hash, bgColorId);
+        hash = update(hash, parentId);
+        hash = update(hash, type);
+        hash = update(hash, widgetId);
+        hash = update(hash, widgetType);
+        hash = update(hash, dataHashes);
+        return hash;
+    }
+
+    private static long update(long hash, String value) {
+        if (value == null) {
+            value = "";
+        }
+        // the length keeps the fields apart
+        hash = update(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long update(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
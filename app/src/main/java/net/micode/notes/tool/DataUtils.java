@@ -23,11 +23,13 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 
@@ -72,6 +74,19 @@ public class DataUtils {
         return false;
     }
 
+    /**
+     * Hold back change notifications of the notes provider until
+     * {@link #endNotifyBatch(ContentResolver)}, calls could be nested. Only the
+     * changes made on the calling thread are held back, end it on the same thread
+     */
+    public static void beginNotifyBatch(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_BEGIN_NOTIFY_BATCH, null, null);
+    }
+
+    public static void endNotifyBatch(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_END_NOTIFY_BATCH, null, null);
+    }
+
     public static void moveNoteToFoler(ContentResolver resolver, long id, long srcFolderId, long desFolderId) {
         ContentValues values = new ContentValues();
         values.put(NoteColumns.PARENT_ID, desFolderId);
@@ -181,6 +196,30 @@ public class DataUtils {
         return exist;
     }
 
+    /**
+     * Load the ids of all the notes at once, so that many ids can be checked
+     * without a query for each
+     */
+    public static HashSet<Long> getAllNoteIds(ContentResolver resolver) {
+        return getAllIds(resolver, Notes.CONTENT_NOTE_URI, NoteColumns.ID);
+    }
+
+    public static HashSet<Long> getAllDataIds(ContentResolver resolver) {
+        return getAllIds(resolver, Notes.CONTENT_DATA_URI, DataColumns.ID);
+    }
+
+    private static HashSet<Long> getAllIds(ContentResolver resolver, Uri uri, String idColumn) {
+        HashSet<Long> ids = new HashSet<Long>();
+        Cursor cursor = resolver.query(uri, new String[] { idColumn }, null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return ids;
+    }
+
     public static boolean checkVisibleFolderName(ContentResolver resolver, String name) {
         Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI, null,
                 NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER +
@@ -224,6 +263,44 @@ public class DataUtils {
         return set;
     }
 
+    /**
+     * The widgets of the notes, found by a single query. The ids are numbers
+     * put in the selection, there could be more of them than the arguments
+     * allowed
+     */
+    public static HashSet<AppWidgetAttribute> getNotesWidget(ContentResolver resolver,
+            HashSet<Long> ids) {
+        HashSet<AppWidgetAttribute> set = new HashSet<AppWidgetAttribute>();
+        if (ids == null || ids.size() == 0) {
+            return set;
+        }
+
+        StringBuilder selection = new StringBuilder(NoteColumns.ID + " IN (");
+        boolean first = true;
+        for (long id : ids) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(id);
+            first = false;
+        }
+        selection.append(')');
+
+        Cursor c = resolver.query(Notes.CONTENT_NOTE_URI,
+                new String[] { NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE },
+                selection.toString(), null, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                AppWidgetAttribute widget = new AppWidgetAttribute();
+                widget.widgetId = c.getInt(0);
+                widget.widgetType = c.getInt(1);
+                set.add(widget);
+            }
+            c.close();
+        }
+        return set;
+    }
+
     public static String getCallNumberByNoteId(ContentResolver resolver, long noteId) {
         Cursor cursor = resolver.query(Notes.CONTENT_DATA_URI,
                 new String [] { CallNote.PHONE_NUMBER },
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.preference.PreferenceManager;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.NoteListColumns;
 import net.micode.notes.ui.NotesPreferenceActivity;
 
 public class ResourceParser {
@@ -123,6 +124,23 @@ public class ResourceParser {
             return BG_NORMAL_RESOURCES[id];
         }
 
+        /**
+         * @param listPosition the position of the note in the list, one of the
+         *            NoteListColumns.LIST_POSITION_* values
+         */
+        public static int getNoteBgRes(int id, int listPosition) {
+            switch (listPosition) {
+                case NoteListColumns.LIST_POSITION_FIRST:
+                    return BG_FIRST_RESOURCES[id];
+                case NoteListColumns.LIST_POSITION_LAST:
+                    return BG_LAST_RESOURCES[id];
+                case NoteListColumns.LIST_POSITION_SINGLE:
+                    return BG_SINGLE_RESOURCES[id];
+                default:
+                    return BG_NORMAL_RESOURCES[id];
+            }
+        }
+
         public static int getFolderBgRes() {
             return R.drawable.list_folder;
         }
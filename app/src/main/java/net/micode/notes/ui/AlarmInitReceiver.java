@@ -26,6 +26,7 @@ import android.database.Cursor;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 
 
 public class AlarmInitReceiver extends BroadcastReceiver {
@@ -35,6 +36,10 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         NoteColumns.ALERTED_DATE
     };
 
+    // the notes whose alert is still to come, the arg is the current time
+    public static final String SELECTION = NoteColumns.ALERTED_DATE + ">? AND "
+            + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+
     private static final int COLUMN_ID                = 0;
     private static final int COLUMN_ALERTED_DATE      = 1;
 
@@ -43,7 +48,7 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         long currentDate = System.currentTimeMillis();
         Cursor c = context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.ALERTED_DATE + ">? AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE,
+                SELECTION,
                 new String[] { String.valueOf(currentDate) },
                 null);
 
@@ -61,5 +66,8 @@ public class AlarmInitReceiver extends BroadcastReceiver {
             }
             c.close();
         }
+
+        // alarms do not survive a reboot
+        GTaskSyncScheduler.start(context);
     }
 }
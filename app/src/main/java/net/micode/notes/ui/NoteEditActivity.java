@@ -141,9 +141,6 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private static final int SHORTCUT_ICON_TITLE_MAX_LEN = 10;
 
-    public static final String TAG_CHECKED = String.valueOf('\u221A');
-    public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
-
     private LinearLayout mEditTextList;
 
     private String mUserQuery;
@@ -740,14 +737,14 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             }
         });
 
-        if (item.startsWith(TAG_CHECKED)) {
+        if (item.startsWith(TextNote.TAG_CHECKED)) {
             cb.setChecked(true);
             edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-            item = item.substring(TAG_CHECKED.length(), item.length()).trim();
-        } else if (item.startsWith(TAG_UNCHECKED)) {
+            item = item.substring(TextNote.TAG_CHECKED.length(), item.length()).trim();
+        } else if (item.startsWith(TextNote.TAG_UNCHECKED)) {
             cb.setChecked(false);
             edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
-            item = item.substring(TAG_UNCHECKED.length(), item.length()).trim();
+            item = item.substring(TextNote.TAG_UNCHECKED.length(), item.length()).trim();
         }
 
         edit.setOnTextViewChangeListener(this);
@@ -773,8 +770,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             switchToListMode(mNoteEditor.getText().toString());
         } else {
             if (!getWorkingText()) {
-                mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(TAG_UNCHECKED + " ",
-                        ""));
+                mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(
+                        TextNote.TAG_UNCHECKED + " ", ""));
             }
             mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
             mEditTextList.setVisibility(View.GONE);
@@ -791,10 +788,12 @@ public class NoteEditActivity extends Activity implements OnClickListener,
                 NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
                 if (!TextUtils.isEmpty(edit.getText())) {
                     if (((CheckBox) view.findViewById(R.id.cb_edit_item)).isChecked()) {
-                        sb.append(TAG_CHECKED).append(" ").append(edit.getText()).append("\n");
+                        sb.append(TextNote.TAG_CHECKED).append(" ").append(edit.getText())
+                                .append("\n");
                         hasChecked = true;
                     } else {
-                        sb.append(TAG_UNCHECKED).append(" ").append(edit.getText()).append("\n");
+                        sb.append(TextNote.TAG_UNCHECKED).append(" ").append(edit.getText())
+                                .append("\n");
                     }
                 }
             }
@@ -857,8 +856,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     }
 
     private String makeShortcutIconTitle(String content) {
-        content = content.replace(TAG_CHECKED, "");
-        content = content.replace(TAG_UNCHECKED, "");
+        content = content.replace(TextNote.TAG_CHECKED, "");
+        content = content.replace(TextNote.TAG_UNCHECKED, "");
         return content.length() > SHORTCUT_ICON_TITLE_MAX_LEN ? content.substring(0,
                 SHORTCUT_ICON_TITLE_MAX_LEN) : content;
     }
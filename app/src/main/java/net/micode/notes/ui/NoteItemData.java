@@ -17,17 +17,23 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.text.TextUtils;
 
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.data.Notes.NoteListColumns;
 
 
 public class NoteItemData {
-    static final String [] PROJECTION = new String [] {
+    /**
+     * The columns of {@link Notes#CONTENT_NOTE_LIST_URI}, the snippet is
+     * cleaned and the position of the row found by the query, so a row is
+     * bound without any lookup
+     */
+    public static final String [] PROJECTION = new String [] {
         NoteColumns.ID,
         NoteColumns.ALERTED_DATE,
         NoteColumns.BG_COLOR_ID,
@@ -40,8 +46,13 @@ public class NoteItemData {
         NoteColumns.TYPE,
         NoteColumns.WIDGET_ID,
         NoteColumns.WIDGET_TYPE,
+        NoteListColumns.PHONE_NUMBER,
+        NoteListColumns.LIST_POSITION,
     };
 
+    // the query cuts the snippet to a line, it fits the buffer
+    private static final int SNIPPET_BUFFER_SIZE = 200;
+
     private static final int ID_COLUMN                    = 0;
     private static final int ALERTED_DATE_COLUMN          = 1;
     private static final int BG_COLOR_ID_COLUMN           = 2;
@@ -54,6 +65,8 @@ public class NoteItemData {
     private static final int TYPE_COLUMN                  = 9;
     private static final int WIDGET_ID_COLUMN             = 10;
     private static final int WIDGET_TYPE_COLUMN           = 11;
+    private static final int PHONE_NUMBER_COLUMN          = 12;
+    private static final int LIST_POSITION_COLUMN         = 13;
 
     private long mId;
     private long mAlertDate;
@@ -63,20 +76,70 @@ public class NoteItemData {
     private long mModifiedDate;
     private int mNotesCount;
     private long mParentId;
+    // the snippet is copied into the buffer, the string is made on demand
+    private CharArrayBuffer mSnippetBuffer;
     private String mSnippet;
+    private int mSnippetLineStart;
+    private int mSnippetLineEnd;
     private int mType;
     private int mWidgetId;
     private int mWidgetType;
     private String mName;
     private String mPhoneNumber;
 
-    private boolean mIsLastItem;
-    private boolean mIsFirstItem;
-    private boolean mIsOnlyOneItem;
-    private boolean mIsOneNoteFollowingFolder;
-    private boolean mIsMultiNotesFollowingFolder;
+    private int mListPosition;
+
+    /**
+     * Create an empty model to be loaded row by row with {@link #load(Cursor)}
+     */
+    NoteItemData() {
+        mSnippetBuffer = new CharArrayBuffer(SNIPPET_BUFFER_SIZE);
+        mName = "";
+        mPhoneNumber = "";
+    }
 
     public NoteItemData(Context context, Cursor cursor) {
+        this();
+        load(cursor);
+        if (!TextUtils.isEmpty(mPhoneNumber)) {
+            mName = Contact.getContact(context, mPhoneNumber);
+            if (mName == null) {
+                mName = mPhoneNumber;
+            }
+        }
+    }
+
+    /**
+     * Copy the data of a row, the copy is kept when the model is loaded with
+     * another row
+     */
+    public NoteItemData(NoteItemData data) {
+        mId = data.mId;
+        mAlertDate = data.mAlertDate;
+        mBgColorId = data.mBgColorId;
+        mCreatedDate = data.mCreatedDate;
+        mHasAttachment = data.mHasAttachment;
+        mModifiedDate = data.mModifiedDate;
+        mNotesCount = data.mNotesCount;
+        mParentId = data.mParentId;
+        mSnippet = data.getSnippet();
+        mSnippetBuffer = new CharArrayBuffer(mSnippet.toCharArray());
+        mSnippetBuffer.sizeCopied = mSnippet.length();
+        mSnippetLineStart = data.mSnippetLineStart;
+        mSnippetLineEnd = data.mSnippetLineEnd;
+        mType = data.mType;
+        mWidgetId = data.mWidgetId;
+        mWidgetType = data.mWidgetType;
+        mName = data.mName;
+        mPhoneNumber = data.mPhoneNumber;
+        mListPosition = data.mListPosition;
+    }
+
+    /**
+     * Load the row the cursor is at. Only the phone number of a call note is
+     * allocated, its name is left for {@link #setCallName(String)}
+     */
+    void load(Cursor cursor) {
         mId = cursor.getLong(ID_COLUMN);
         mAlertDate = cursor.getLong(ALERTED_DATE_COLUMN);
         mBgColorId = cursor.getInt(BG_COLOR_ID_COLUMN);
@@ -85,79 +148,60 @@ public class NoteItemData {
         mModifiedDate = cursor.getLong(MODIFIED_DATE_COLUMN);
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
-        mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
+        cursor.copyStringToBuffer(SNIPPET_COLUMN, mSnippetBuffer);
+        mSnippet = null;
+        findSnippetLine();
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
         mPhoneNumber = "";
-        if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
-            if (!TextUtils.isEmpty(mPhoneNumber)) {
-                mName = Contact.getContact(context, mPhoneNumber);
-                if (mName == null) {
-                    mName = mPhoneNumber;
-                }
-            }
+        if (mParentId == Notes.ID_CALL_RECORD_FOLDER && !cursor.isNull(PHONE_NUMBER_COLUMN)) {
+            mPhoneNumber = cursor.getString(PHONE_NUMBER_COLUMN);
         }
+        mName = "";
+        mListPosition = cursor.getInt(LIST_POSITION_COLUMN);
+    }
 
-        if (mName == null) {
-            mName = "";
+    /**
+     * Find the first line of the trimmed snippet, as
+     * DataUtils.getFormattedSnippet() does
+     */
+    private void findSnippetLine() {
+        char[] chars = mSnippetBuffer.data;
+        int start = 0;
+        int end = mSnippetBuffer.sizeCopied;
+        while (start < end && chars[start] <= ' ') {
+            start++;
         }
-        checkPostion(cursor);
-    }
-
-    private void checkPostion(Cursor cursor) {
-        mIsLastItem = cursor.isLast() ? true : false;
-        mIsFirstItem = cursor.isFirst() ? true : false;
-        mIsOnlyOneItem = (cursor.getCount() == 1);
-        mIsMultiNotesFollowingFolder = false;
-        mIsOneNoteFollowingFolder = false;
-
-        if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {
-            int position = cursor.getPosition();
-            if (cursor.moveToPrevious()) {
-                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-                        || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {
-                    if (cursor.getCount() > (position + 1)) {
-                        mIsMultiNotesFollowingFolder = true;
-                    } else {
-                        mIsOneNoteFollowingFolder = true;
-                    }
-                }
-                if (!cursor.moveToNext()) {
-                    throw new IllegalStateException("cursor move to previous but can't move back");
-                }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            if (chars[i] == '\n') {
+                end = i;
+                break;
             }
         }
+        mSnippetLineStart = start;
+        mSnippetLineEnd = end;
     }
 
-    public boolean isOneFollowingFolder() {
-        return mIsOneNoteFollowingFolder;
-    }
-
-    public boolean isMultiFollowingFolder() {
-        return mIsMultiNotesFollowingFolder;
+    void setCallName(String name) {
+        mName = (name != null) ? name : "";
     }
 
-    public boolean isLast() {
-        return mIsLastItem;
+    /**
+     * One of the NoteListColumns.LIST_POSITION_* values
+     */
+    public int getListPosition() {
+        return mListPosition;
     }
 
     public String getCallName() {
         return mName;
     }
 
-    public boolean isFirst() {
-        return mIsFirstItem;
-    }
-
-    public boolean isSingle() {
-        return mIsOnlyOneItem;
-    }
-
     public long getId() {
         return mId;
     }
@@ -207,9 +251,33 @@ public class NoteItemData {
     }
 
     public String getSnippet() {
+        if (mSnippet == null) {
+            mSnippet = new String(mSnippetBuffer.data, 0, mSnippetBuffer.sizeCopied);
+        }
         return mSnippet;
     }
 
+    /**
+     * The chars of the snippet, the first line is from
+     * {@link #getSnippetLineStart()} to {@link #getSnippetLineEnd()}. They
+     * are reused by the next load
+     */
+    char[] getSnippetChars() {
+        return mSnippetBuffer.data;
+    }
+
+    int getSnippetLineStart() {
+        return mSnippetLineStart;
+    }
+
+    int getSnippetLineEnd() {
+        return mSnippetLineEnd;
+    }
+
+    public String getPhoneNumber() {
+        return mPhoneNumber;
+    }
+
     public boolean hasAlert() {
         return (mAlertDate > 0);
     }
@@ -221,4 +289,12 @@ public class NoteItemData {
     public static int getNoteType(Cursor cursor) {
         return cursor.getInt(TYPE_COLUMN);
     }
+
+    public static long getNoteId(Cursor cursor) {
+        return cursor.getLong(ID_COLUMN);
+    }
+
+    public static long getModifiedDate(Cursor cursor) {
+        return cursor.getLong(MODIFIED_DATE_COLUMN);
+    }
 }
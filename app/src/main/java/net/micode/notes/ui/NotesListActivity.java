@@ -28,6 +28,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -50,6 +51,8 @@ import android.view.View.OnClickListener;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.View.OnTouchListener;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
@@ -63,6 +66,7 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.gtask.remote.GTaskSyncService;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.tool.BackupUtils;
@@ -83,6 +87,18 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private static final int FOLDER_LIST_QUERY_TOKEN      = 1;
 
+    private static final int FOLDER_NOTE_PAGE_QUERY_TOKEN = 2;
+
+    private static final int FOLDER_NOTE_RELOAD_QUERY_TOKEN = 3;
+
+    private static final int FOLDER_NOTE_IDS_QUERY_TOKEN = 4;
+
+    // the rows of a page of the note list
+    public static final int NOTES_LIST_PAGE_SIZE = 50;
+
+    // the next page is loaded when the rows left below the screen are fewer
+    private static final int NOTES_LIST_PRELOAD_ROWS = 10;
+
     private static final int MENU_FOLDER_DELETE = 0;
 
     private static final int MENU_FOLDER_VIEW = 1;
@@ -125,12 +141,38 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private NoteItemData mFocusNoteDataItem;
 
-    private static final String NORMAL_SELECTION = NoteColumns.PARENT_ID + "=?";
+    private boolean mHasMorePages;
+
+    private boolean mLoadingPage;
+
+    // the first page is asked, the rows shown may be of another folder
+    private boolean mLoadingList;
+
+    // the rows of the type of the last row loaded are all loaded
+    private boolean mPageTypeEnded;
+
+    // the list is sorted by type, modified date and id, which is unique, so a
+    // page starts right after the last row loaded. A page keeps to the type of
+    // that row, the selection is then a range of the parent_id index
+    public static final String NEXT_PAGE_SELECTION = NoteColumns.TYPE + "=? AND "
+            + NoteColumns.MODIFIED_DATE + "<=? AND (" + NoteColumns.MODIFIED_DATE + "<? OR "
+            + NoteColumns.ID + "<?)";
 
-    private static final String ROOT_FOLDER_SELECTION = "(" + NoteColumns.TYPE + "<>"
-            + Notes.TYPE_SYSTEM + " AND " + NoteColumns.PARENT_ID + "=?)" + " OR ("
-            + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " AND "
-            + NoteColumns.NOTES_COUNT + ">0)";
+    // the page after the last row of a type
+    public static final String NEXT_TYPE_PAGE_SELECTION = NoteColumns.TYPE + "<?";
+
+    // the rows up to the last row loaded, a range of the parent_id index
+    // from its type on
+    public static final String RELOAD_SELECTION = NoteColumns.TYPE + ">=? AND ("
+            + NoteColumns.TYPE + ">? OR (" + NoteColumns.MODIFIED_DATE + ">=? AND ("
+            + NoteColumns.MODIFIED_DATE + ">? OR " + NoteColumns.ID + ">=?)))";
+
+    // the notes of a folder, loaded or not. Only their ids are read, which the
+    // parent_id index has
+    public static final String FOLDER_NOTE_IDS_SELECTION = NoteColumns.PARENT_ID + "=? AND "
+            + NoteColumns.TYPE + "=?";
+
+    public static final String DESTINATION_FOLDER_SORT_ORDER = NoteColumns.MODIFIED_DATE + " DESC";
 
     private final static int REQUEST_CODE_OPEN_NODE = 102;
     private final static int REQUEST_CODE_NEW_NODE  = 103;
@@ -145,6 +187,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
          * Insert an introduction when user firstly use this application
          */
         setAppInfoFromRawRes();
+
+        // existing installs have no sync alarm until they reboot otherwise
+        GTaskSyncScheduler.start(this);
     }
 
     @Override
@@ -219,7 +264,25 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mNotesListView.setOnItemClickListener(new OnListItemClickListener());
         mNotesListView.setOnItemLongClickListener(this);
         mNotesListAdapter = new NotesListAdapter(this);
+        mNotesListAdapter.setOnContentChangedListener(new NotesListAdapter.OnContentChangedListener() {
+            public void onContentChanged() {
+                // every page notifies the change, reload the list once
+                mNotesListView.removeCallbacks(mReloadNotesList);
+                mNotesListView.post(mReloadNotesList);
+            }
+        });
         mNotesListView.setAdapter(mNotesListAdapter);
+        mNotesListView.setOnScrollListener(new OnScrollListener() {
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount + NOTES_LIST_PRELOAD_ROWS >= totalItemCount) {
+                    startAsyncNextPageQuery();
+                }
+            }
+        });
         mAddNewNote = (Button) findViewById(R.id.btn_new_note);
         mAddNewNote.setOnClickListener(this);
         mAddNewNote.setOnTouchListener(new NewNoteOnTouchListener());
@@ -249,6 +312,8 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             }
             mActionMode = mode;
             mNotesListAdapter.setChoiceMode(true);
+            // the notes of the folder are counted to tell whether all are selected
+            startAsyncNoteIdsQuery(false);
             mNotesListView.setLongClickable(false);
             mAddNewNote.setVisibility(View.GONE);
 
@@ -260,8 +325,13 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     R.menu.note_list_dropdown);
             mDropDownMenu.setOnDropdownMenuItemClickListener(new PopupMenu.OnMenuItemClickListener(){
                 public boolean onMenuItemClick(MenuItem item) {
-                    mNotesListAdapter.selectAll(!mNotesListAdapter.isAllSelected());
-                    updateMenu();
+                    if (mNotesListAdapter.isAllSelected()) {
+                        mNotesListAdapter.unselectAll();
+                        updateMenu();
+                    } else {
+                        // the notes not loaded yet are selected too
+                        startAsyncNoteIdsQuery(true);
+                    }
                     return true;
                 }
 
@@ -408,13 +478,105 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     };
 
+    private final Runnable mReloadNotesList = new Runnable() {
+        public void run() {
+            startAsyncNotesListReload();
+        }
+    };
+
+    /**
+     * Load again the rows loaded so far, so the list keeps its place. They are
+     * the rows up to the last one by the sort order, a row added or removed
+     * before it is in or out. Once every row is loaded, they all are again
+     */
+    private void startAsyncNotesListReload() {
+        Cursor cursor = mNotesListAdapter.getCursor();
+        if (mLoadingList || cursor == null || !cursor.moveToLast()) {
+            startAsyncNotesListQuery();
+            return;
+        }
+
+        mLoadingPage = false;
+        Uri uri = Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendPath(String.valueOf(mCurrentFolderId)).build();
+        if (!mHasMorePages) {
+            mBackgroundQueryHandler.startQuery(FOLDER_NOTE_RELOAD_QUERY_TOKEN, Boolean.FALSE,
+                    uri, NoteItemData.PROJECTION, null, null, null);
+            return;
+        }
+
+        String type = String.valueOf(NoteItemData.getNoteType(cursor));
+        String modifiedDate = String.valueOf(NoteItemData.getModifiedDate(cursor));
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_RELOAD_QUERY_TOKEN, Boolean.TRUE, uri,
+                NoteItemData.PROJECTION, RELOAD_SELECTION, new String[] {
+                        type, type, modifiedDate, modifiedDate,
+                        String.valueOf(NoteItemData.getNoteId(cursor))
+                }, null);
+    }
+
+    /**
+     * Load the first rows of the current folder, the rest are loaded page by
+     * page as the list scrolls
+     */
     private void startAsyncNotesListQuery() {
-        String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
-                : NORMAL_SELECTION;
-        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[] {
-                    String.valueOf(mCurrentFolderId)
-                }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+        // the rows asked before are out of date
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_LIST_QUERY_TOKEN);
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_RELOAD_QUERY_TOKEN);
+        mLoadingList = true;
+        mLoadingPage = false;
+        mPageTypeEnded = false;
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN,
+                Integer.valueOf(NOTES_LIST_PAGE_SIZE), getNotesListUri(NOTES_LIST_PAGE_SIZE),
+                NoteItemData.PROJECTION, null, null, null);
+    }
+
+    /**
+     * Query the ids of all the notes of the current folder, the loaded ones or
+     * not. They are all selected for select all, else the selection keeps the
+     * notes which are still in the folder
+     */
+    private void startAsyncNoteIdsQuery(boolean selectAll) {
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_IDS_QUERY_TOKEN,
+                Boolean.valueOf(selectAll), Notes.CONTENT_NOTE_URI, new String[] {
+                    NoteColumns.ID
+                }, FOLDER_NOTE_IDS_SELECTION, new String[] {
+                        String.valueOf(mCurrentFolderId), String.valueOf(Notes.TYPE_NOTE)
+                }, null);
+    }
+
+    private void startAsyncNextPageQuery() {
+        Cursor cursor = mNotesListAdapter.getCursor();
+        if (!mHasMorePages || mLoadingPage || cursor == null || !cursor.moveToLast()) {
+            return;
+        }
+
+        // the page starts after the last row by the sort order
+        String type = String.valueOf(NoteItemData.getNoteType(cursor));
+        String selection;
+        String[] selectionArgs;
+        if (mPageTypeEnded) {
+            selection = NEXT_TYPE_PAGE_SELECTION;
+            selectionArgs = new String[] {
+                type
+            };
+        } else {
+            String modifiedDate = String.valueOf(NoteItemData.getModifiedDate(cursor));
+            selection = NEXT_PAGE_SELECTION;
+            selectionArgs = new String[] {
+                    type, modifiedDate, modifiedDate,
+                    String.valueOf(NoteItemData.getNoteId(cursor))
+            };
+        }
+        mLoadingPage = true;
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_PAGE_QUERY_TOKEN,
+                Integer.valueOf(NOTES_LIST_PAGE_SIZE), getNotesListUri(NOTES_LIST_PAGE_SIZE),
+                NoteItemData.PROJECTION, selection, selectionArgs, null);
+    }
+
+    private Uri getNotesListUri(int limit) {
+        return Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendPath(String.valueOf(mCurrentFolderId))
+                .appendQueryParameter(Notes.QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
     }
 
     private final class BackgroundQueryHandler extends AsyncQueryHandler {
@@ -426,7 +588,72 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
             switch (token) {
                 case FOLDER_NOTE_LIST_QUERY_TOKEN:
+                    // a page asked before is of the old rows
+                    mLoadingList = false;
+                    mLoadingPage = false;
+                    mHasMorePages = (cursor != null && cursor.getCount() >= (Integer) cookie);
                     mNotesListAdapter.changeCursor(cursor);
+                    retainSelectedNotes();
+                    break;
+                case FOLDER_NOTE_RELOAD_QUERY_TOKEN:
+                    if ((Boolean) cookie && (cursor == null || cursor.getCount() == 0)) {
+                        // the rows loaded are all gone, start from the top
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                        startAsyncNotesListQuery();
+                        break;
+                    }
+                    // the rows after the last one are still to be loaded if
+                    // the reload is bounded by it
+                    mLoadingPage = false;
+                    mPageTypeEnded = false;
+                    mHasMorePages = (Boolean) cookie;
+                    mNotesListAdapter.changeCursor(cursor);
+                    retainSelectedNotes();
+                    break;
+                case FOLDER_NOTE_IDS_QUERY_TOKEN:
+                    if (cursor == null) {
+                        Log.e(TAG, "Query note ids failed");
+                        break;
+                    }
+                    // the action mode could be finished since the ids are asked
+                    if (mNotesListAdapter.isInChoiceMode()) {
+                        if ((Boolean) cookie) {
+                            mNotesListAdapter.selectAll(cursor);
+                        } else {
+                            mNotesListAdapter.retainSelectedIds(cursor);
+                        }
+                        mModeCallBack.updateMenu();
+                    }
+                    cursor.close();
+                    break;
+                case FOLDER_NOTE_PAGE_QUERY_TOKEN:
+                    if (!mLoadingPage) {
+                        // the list is reloaded since the page is asked
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                        break;
+                    }
+                    mLoadingPage = false;
+                    boolean typeEnded = !mPageTypeEnded
+                            && (cursor == null || cursor.getCount() < (Integer) cookie);
+                    mHasMorePages = (cursor != null && cursor.getCount() >= (Integer) cookie);
+                    if (cursor != null && cursor.getCount() > 0) {
+                        mNotesListAdapter.appendPage(cursor);
+                    } else if (cursor != null) {
+                        cursor.close();
+                    }
+
+                    // a short page of folders may be followed by the notes
+                    Cursor rows = mNotesListAdapter.getCursor();
+                    mPageTypeEnded = typeEnded && rows != null && rows.moveToLast()
+                            && NoteItemData.getNoteType(rows) != Notes.TYPE_NOTE;
+                    if (mPageTypeEnded) {
+                        mHasMorePages = true;
+                        startAsyncNextPageQuery();
+                    }
                     break;
                 case FOLDER_LIST_QUERY_TOKEN:
                     if (cursor != null && cursor.getCount() > 0) {
@@ -441,6 +668,16 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         }
     }
 
+    /**
+     * The notes selected could be gone with the rows loaded again, those not
+     * loaded are checked too
+     */
+    private void retainSelectedNotes() {
+        if (mNotesListAdapter.isInChoiceMode()) {
+            startAsyncNoteIdsQuery(false);
+        }
+    }
+
     private void showFolderListMenu(Cursor cursor) {
         AlertDialog.Builder builder = new AlertDialog.Builder(NotesListActivity.this);
         builder.setTitle(R.string.menu_title_select_folder);
@@ -917,27 +1154,35 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     }
 
-    private void startQueryDestinationFolders() {
+    /**
+     * The folders the notes could be moved to, the args are the folder type,
+     * the trash folder and the current folder. The root is one of them too
+     * when the list is of a folder
+     */
+    public static String getDestinationFolderSelection(boolean inFolder) {
         String selection = NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>? AND " + NoteColumns.ID + "<>?";
-        selection = (mState == ListEditState.NOTE_LIST) ? selection:
+        return !inFolder ? selection:
             "(" + selection + ") OR (" + NoteColumns.ID + "=" + Notes.ID_ROOT_FOLDER + ")";
+    }
 
+    private void startQueryDestinationFolders() {
         mBackgroundQueryHandler.startQuery(FOLDER_LIST_QUERY_TOKEN,
                 null,
                 Notes.CONTENT_NOTE_URI,
                 FoldersListAdapter.PROJECTION,
-                selection,
+                getDestinationFolderSelection(mState != ListEditState.NOTE_LIST),
                 new String[] {
                         String.valueOf(Notes.TYPE_FOLDER),
                         String.valueOf(Notes.ID_TRASH_FOLER),
                         String.valueOf(mCurrentFolderId)
                 },
-                NoteColumns.MODIFIED_DATE + " DESC");
+                DESTINATION_FOLDER_SORT_ORDER);
     }
 
     public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
         if (view instanceof NotesListItem) {
-            mFocusNoteDataItem = ((NotesListItem) view).getItemData();
+            // the model of the view is loaded again when the row is rebound
+            mFocusNoteDataItem = new NoteItemData(((NotesListItem) view).getItemData());
             if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE && !mNotesListAdapter.isInChoiceMode()) {
                 if (mNotesListView.startActionMode(mModeCallBack) != null) {
                     mModeCallBack.onItemCheckedStateChanged(null, position, id, true);
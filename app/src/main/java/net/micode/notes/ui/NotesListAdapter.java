@@ -18,25 +18,58 @@ package net.micode.notes.ui;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 
+import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.tool.DataUtils;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 
 public class NotesListAdapter extends CursorAdapter {
     private static final String TAG = "NotesListAdapter";
+
+    private static final ExecutorService sCallNameExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "call-name-lookup");
+                }
+            });
     private Context mContext;
-    private HashMap<Integer, Boolean> mSelectedIndex;
-    private int mNotesCount;
+    // the ids of the selected notes, they are kept across requeries
+    private SelectedIds mSelectedIds;
+    // the notes of the folder including those not loaded, -1 until counted
+    private int mFolderNotesCount;
     private boolean mChoiceMode;
+    // the contact names of the phone numbers, looked up in the background
+    private HashMap<String, String> mCallNames;
+    private HashSet<String> mPendingCallNames;
+    private Handler mHandler;
+    // the pages of the list, the adapter's cursor is merged from them
+    private ArrayList<Cursor> mPages;
+    private OnContentChangedListener mOnContentChangedListener;
+
+    public interface OnContentChangedListener {
+        /**
+         * Called instead of requerying the pages, which could shift the rows
+         * between them
+         */
+        void onContentChanged();
+    }
 
     public static class AppWidgetAttribute {
         public int widgetId;
@@ -45,9 +78,17 @@ public class NotesListAdapter extends CursorAdapter {
 
     public NotesListAdapter(Context context) {
         super(context, null);
-        mSelectedIndex = new HashMap<Integer, Boolean>();
+        mSelectedIds = new SelectedIds();
+        mPages = new ArrayList<Cursor>();
+        mCallNames = new HashMap<String, String>();
+        mPendingCallNames = new HashSet<String>();
+        mHandler = new Handler(Looper.getMainLooper());
         mContext = context;
-        mNotesCount = 0;
+        mFolderNotesCount = -1;
+    }
+
+    public void setOnContentChangedListener(OnContentChangedListener listener) {
+        mOnContentChangedListener = listener;
     }
 
     @Override
@@ -55,17 +96,64 @@ public class NotesListAdapter extends CursorAdapter {
         return new NotesListItem(context);
     }
 
+    /**
+     * The row is loaded into the model of the view, a call note whose contact
+     * is not looked up yet shows the phone number until it is
+     */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
         if (view instanceof NotesListItem) {
-            NoteItemData itemData = new NoteItemData(context, cursor);
-            ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-                    isSelectedItem(cursor.getPosition()));
+            NotesListItem item = (NotesListItem) view;
+            NoteItemData itemData = item.getItemData();
+            itemData.load(cursor);
+            if (itemData.isCallRecord()) {
+                itemData.setCallName(getCallName(itemData.getPhoneNumber()));
+            }
+            item.bind(context, itemData, mChoiceMode, mSelectedIds.contains(itemData.getId()));
         }
     }
 
+    private String getCallName(final String phoneNumber) {
+        String name = mCallNames.get(phoneNumber);
+        if (name != null) {
+            return name;
+        }
+
+        if (mPendingCallNames.add(phoneNumber)) {
+            final Context context = mContext.getApplicationContext();
+            sCallNameExecutor.execute(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    String contact = Contact.getContact(context, phoneNumber);
+                    final String name = (contact != null) ? contact : phoneNumber;
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            mPendingCallNames.remove(phoneNumber);
+                            mCallNames.put(phoneNumber, name);
+                            // the names found together are shown at once
+                            mHandler.removeCallbacks(mNotifyCallNames);
+                            mHandler.post(mNotifyCallNames);
+                        }
+                    });
+                }
+            });
+        }
+        return phoneNumber;
+    }
+
+    private final Runnable mNotifyCallNames = new Runnable() {
+        public void run() {
+            notifyDataSetChanged();
+        }
+    };
+
     public void setCheckedItem(final int position, final boolean checked) {
-        mSelectedIndex.put(position, checked);
+        long id = getItemId(position);
+        if (checked) {
+            mSelectedIds.add(id);
+        } else {
+            mSelectedIds.remove(id);
+        }
         notifyDataSetChanged();
     }
 
@@ -74,111 +162,190 @@ public class NotesListAdapter extends CursorAdapter {
     }
 
     public void setChoiceMode(boolean mode) {
-        mSelectedIndex.clear();
+        mSelectedIds.clear();
         mChoiceMode = mode;
+        mFolderNotesCount = -1;
     }
 
-    public void selectAll(boolean checked) {
-        Cursor cursor = getCursor();
-        for (int i = 0; i < getCount(); i++) {
-            if (cursor.moveToPosition(i)) {
-                if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-                    setCheckedItem(i, checked);
-                }
+    /**
+     * Select all the notes of the folder, the loaded ones or not. The cursor
+     * has the ids of all of them, the list is notified once
+     */
+    public void selectAll(Cursor noteIds) {
+        long[] ids = new long[noteIds.getCount()];
+        int count = 0;
+        noteIds.moveToPosition(-1);
+        while (noteIds.moveToNext() && count < ids.length) {
+            ids[count++] = noteIds.getLong(0);
+        }
+        mSelectedIds.set(ids, count);
+        mFolderNotesCount = count;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Unselect all the notes, the list is notified once
+     */
+    public void unselectAll() {
+        mSelectedIds.clear();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Unselect the notes which are gone from the folder. The cursor has the
+     * ids of all its notes, a note selected but not loaded is kept
+     */
+    public void retainSelectedIds(Cursor noteIds) {
+        mFolderNotesCount = noteIds.getCount();
+        if (mSelectedIds.size() == 0) {
+            return;
+        }
+
+        long[] ids = new long[mSelectedIds.size()];
+        int count = 0;
+        noteIds.moveToPosition(-1);
+        while (noteIds.moveToNext() && count < ids.length) {
+            long id = noteIds.getLong(0);
+            if (mSelectedIds.contains(id)) {
+                ids[count++] = id;
             }
         }
+        if (count != mSelectedIds.size()) {
+            mSelectedIds.set(ids, count);
+            notifyDataSetChanged();
+        }
     }
 
     public HashSet<Long> getSelectedItemIds() {
         HashSet<Long> itemSet = new HashSet<Long>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Long id = getItemId(position);
-                if (id == Notes.ID_ROOT_FOLDER) {
-                    Log.d(TAG, "Wrong item id, should not happen");
-                } else {
-                    itemSet.add(id);
-                }
+        for (int i = 0; i < mSelectedIds.size(); i++) {
+            long id = mSelectedIds.get(i);
+            if (id == Notes.ID_ROOT_FOLDER) {
+                Log.d(TAG, "Wrong item id, should not happen");
+            } else {
+                itemSet.add(id);
             }
         }
 
         return itemSet;
     }
 
+    /**
+     * The widgets of the selected notes, the loaded ones or not. They are
+     * queried, don't call it on the main thread
+     */
     public HashSet<AppWidgetAttribute> getSelectedWidget() {
-        HashSet<AppWidgetAttribute> itemSet = new HashSet<AppWidgetAttribute>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Cursor c = (Cursor) getItem(position);
-                if (c != null) {
-                    AppWidgetAttribute widget = new AppWidgetAttribute();
-                    NoteItemData item = new NoteItemData(mContext, c);
-                    widget.widgetId = item.getWidgetId();
-                    widget.widgetType = item.getWidgetType();
-                    itemSet.add(widget);
-                    /**
-                     * Don't close cursor here, only the adapter could close it
-                     */
-                } else {
-                    Log.e(TAG, "Invalid cursor");
-                    return null;
-                }
-            }
-        }
-        return itemSet;
+        return DataUtils.getNotesWidget(mContext.getContentResolver(), getSelectedItemIds());
     }
 
     public int getSelectedCount() {
-        Collection<Boolean> values = mSelectedIndex.values();
-        if (null == values) {
-            return 0;
-        }
-        Iterator<Boolean> iter = values.iterator();
-        int count = 0;
-        while (iter.hasNext()) {
-            if (true == iter.next()) {
-                count++;
-            }
-        }
-        return count;
+        return mSelectedIds.size();
     }
 
+    /**
+     * Whether all the notes of the folder are selected, not known until they
+     * are counted by {@link #selectAll(Cursor)} or {@link #retainSelectedIds(Cursor)}
+     */
     public boolean isAllSelected() {
         int checkedCount = getSelectedCount();
-        return (checkedCount != 0 && checkedCount == mNotesCount);
+        return (checkedCount != 0 && checkedCount == mFolderNotesCount);
     }
 
     public boolean isSelectedItem(final int position) {
-        if (null == mSelectedIndex.get(position)) {
-            return false;
-        }
-        return mSelectedIndex.get(position);
+        return mSelectedIds.contains(getItemId(position));
     }
 
     @Override
     protected void onContentChanged() {
+        if (mOnContentChangedListener != null) {
+            mOnContentChangedListener.onContentChanged();
+            return;
+        }
         super.onContentChanged();
-        calcNotesCount();
     }
 
+    /**
+     * Set the first page of the list, the pages loaded before are closed
+     */
     @Override
     public void changeCursor(Cursor cursor) {
         super.changeCursor(cursor);
-        calcNotesCount();
+        mPages.clear();
+        if (cursor != null) {
+            mPages.add(cursor);
+        }
     }
 
-    private void calcNotesCount() {
-        mNotesCount = 0;
-        for (int i = 0; i < getCount(); i++) {
-            Cursor c = (Cursor) getItem(i);
-            if (c != null) {
-                if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-                    mNotesCount++;
-                }
-            } else {
-                Log.e(TAG, "Invalid cursor");
+    /**
+     * Add a page after the rows loaded so far. The page is closed together
+     * with the others by the next {@link #changeCursor(Cursor)}
+     */
+    public void appendPage(Cursor page) {
+        if (mPages.isEmpty()) {
+            changeCursor(page);
+            return;
+        }
+
+        mPages.add(page);
+        // the merged cursor replaced is not closed, it would close the pages
+        swapCursor(new MergeCursor(mPages.toArray(new Cursor[mPages.size()])));
+    }
+
+    /**
+     * A set of ids kept in a sorted array, looked up by binary search
+     */
+    private static class SelectedIds {
+        private long[] mIds = new long[16];
+        private int mSize;
+
+        public int size() {
+            return mSize;
+        }
+
+        public long get(int index) {
+            return mIds[index];
+        }
+
+        public boolean contains(long id) {
+            return Arrays.binarySearch(mIds, 0, mSize, id) >= 0;
+        }
+
+        public void add(long id) {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index >= 0) {
                 return;
             }
+            index = -index - 1;
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+            mIds[index] = id;
+            mSize++;
+        }
+
+        public void remove(long id) {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index >= 0) {
+                System.arraycopy(mIds, index + 1, mIds, index, mSize - index - 1);
+                mSize--;
+            }
+        }
+
+        /**
+         * Replace the ids at once, they are sorted a single time
+         */
+        public void set(long[] ids, int count) {
+            if (mIds.length < count) {
+                mIds = new long[count];
+            }
+            System.arraycopy(ids, 0, mIds, 0, count);
+            Arrays.sort(mIds, 0, count);
+            mSize = count;
+        }
+
+        public void clear() {
+            mSize = 0;
         }
     }
 }
@@ -26,7 +26,6 @@ import android.widget.TextView;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser.NoteItemBgResources;
 
 
@@ -46,6 +45,7 @@ public class NotesListItem extends LinearLayout {
         mTime = (TextView) findViewById(R.id.tv_time);
         mCallName = (TextView) findViewById(R.id.tv_name);
         mCheckBox = (CheckBox) findViewById(android.R.id.checkbox);
+        mItemData = new NoteItemData();
     }
 
     public void bind(Context context, NoteItemData data, boolean choiceMode, boolean checked) {
@@ -68,7 +68,7 @@ public class NotesListItem extends LinearLayout {
             mCallName.setVisibility(View.VISIBLE);
             mCallName.setText(data.getCallName());
             mTitle.setTextAppearance(context,R.style.TextAppearanceSecondaryItem);
-            mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
+            setSnippetLine(data);
             if (data.hasAlert()) {
                 mAlert.setImageResource(R.drawable.clock);
                 mAlert.setVisibility(View.VISIBLE);
@@ -85,7 +85,7 @@ public class NotesListItem extends LinearLayout {
                                 data.getNotesCount()));
                 mAlert.setVisibility(View.GONE);
             } else {
-                mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
+                setSnippetLine(data);
                 if (data.hasAlert()) {
                     mAlert.setImageResource(R.drawable.clock);
                     mAlert.setVisibility(View.VISIBLE);
@@ -99,23 +99,24 @@ public class NotesListItem extends LinearLayout {
         setBackground(data);
     }
 
+    private void setSnippetLine(NoteItemData data) {
+        // the chars are not copied, they stay unchanged until the next bind
+        mTitle.setText(data.getSnippetChars(), data.getSnippetLineStart(),
+                data.getSnippetLineEnd() - data.getSnippetLineStart());
+    }
+
     private void setBackground(NoteItemData data) {
         int id = data.getBgColorId();
         if (data.getType() == Notes.TYPE_NOTE) {
-            if (data.isSingle() || data.isOneFollowingFolder()) {
-                setBackgroundResource(NoteItemBgResources.getNoteBgSingleRes(id));
-            } else if (data.isLast()) {
-                setBackgroundResource(NoteItemBgResources.getNoteBgLastRes(id));
-            } else if (data.isFirst() || data.isMultiFollowingFolder()) {
-                setBackgroundResource(NoteItemBgResources.getNoteBgFirstRes(id));
-            } else {
-                setBackgroundResource(NoteItemBgResources.getNoteBgNormalRes(id));
-            }
+            setBackgroundResource(NoteItemBgResources.getNoteBgRes(id, data.getListPosition()));
         } else {
             setBackgroundResource(NoteItemBgResources.getFolderBgRes());
         }
     }
 
+    /**
+     * The model of the row bound, it is loaded again by the next bind
+     */
     public NoteItemData getItemData() {
         return mItemData;
     }
@@ -45,6 +45,8 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.remote.GTaskManager;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.gtask.remote.GTaskSyncService;
 
 
@@ -301,6 +303,9 @@ public class NotesPreferenceActivity extends PreferenceActivity {
 
             // clean up last sync time
             setLastSyncTime(this, 0);
+            GTaskManager.clearSyncPoints(this);
+            GTaskSyncScheduler.stop(this);
+            GTaskSyncScheduler.start(this);
 
             // clean up local gtask related info
             new Thread(new Runnable() {
@@ -328,6 +333,8 @@ public class NotesPreferenceActivity extends PreferenceActivity {
             editor.remove(PREFERENCE_LAST_SYNC_TIME);
         }
         editor.commit();
+        GTaskManager.clearSyncPoints(this);
+        GTaskSyncScheduler.stop(this);
 
         // clean up local gtask related info
         new Thread(new Runnable() {
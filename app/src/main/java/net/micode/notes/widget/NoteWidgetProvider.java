@@ -45,6 +45,11 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
 
     private static final String TAG = "NoteWidgetProvider";
 
+    // the note of a widget unless it is trashed, the args are the widget id
+    // and the trash folder
+    public static final String SELECTION = NoteColumns.WIDGET_ID + "=? AND "
+            + NoteColumns.PARENT_ID + "<>?";
+
     @Override
     public void onDeleted(Context context, int[] appWidgetIds) {
         ContentValues values = new ContentValues();
@@ -60,7 +65,7 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
     private Cursor getNoteWidgetInfo(Context context, int widgetId) {
         return context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.PARENT_ID + "<>?",
+                SELECTION,
                 new String[] { String.valueOf(widgetId), String.valueOf(Notes.ID_TRASH_FOLER) },
                 null);
     }